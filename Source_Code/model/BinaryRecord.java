@@ -0,0 +1,322 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Compact binary form of a .record file (extension .brecord), converting both ways without loss:
+// decoding gives back the text record byte for byte.
+//
+// Layout: magic "JBR1", varint start position id (0 = the standard setup), varint line format
+// (CRLF, NO_FINAL_NEWLINE), red and blue names as varint length + UTF-8, then one byte per line:
+//   0..MOVE_CODES-1  "move XN YN" for one of the geometrically possible steps and river jumps
+//   UNDO, STOP       "undo", "stop"
+//   START            "start <red> <blue>" with the names from the header
+//   TEXT             any other line, as varint length + UTF-8 (results, comments, malformed moves)
+// and finally END followed by the CRC32 of everything before it (4 bytes, big-endian).
+//
+// Usage: java BinaryRecord encode|decode <file or directory>...
+//   writes game_log_N.brecord next to game_log_N.record, or the other way round
+public class BinaryRecord {
+    static final String EXTENSION = ".brecord";
+    static final String TEXT_EXTENSION = ".record";
+    static final int STANDARD_START = 0;
+    // Line format bits
+    static final int CRLF = 1;
+    static final int NO_FINAL_NEWLINE = 2;
+    private static final byte[] MAGIC = {'J', 'B', 'R', '1'};
+
+    // Every step between two playable squares and every river jump: 220 steps and 20 jumps
+    private static final int[] CODE_MOVES;
+    private static final short[] CODE_OF_MOVE = new short[1 << 14];
+    static final int MOVE_CODES;
+    static final int UNDO = 240;
+    static final int STOP = 241;
+    static final int START = 242;
+    static final int TEXT = 243;
+    static final int END = 255;
+
+    static {
+        int[] moves = new int[256];
+        int n = 0;
+        int[][] directions = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+        java.util.Arrays.fill(CODE_OF_MOVE, (short) -1);
+        for (int from = Position.COLS; from < Position.SQUARES; from++) {
+            for (int[] d : directions) {
+                int r = Position.row(from) + d[0], c = Position.col(from) + d[1];
+                if (!playable(r, c)) continue;
+                moves[n++] = MoveGenerator.move(from, Position.square(r, c));
+                // Jumps start on a bank and land on the first square past the river
+                if (Position.isRiver(from) || !Position.isRiver(Position.square(r, c))) continue;
+                while (playable(r, c) && Position.isRiver(Position.square(r, c))) {
+                    r += d[0];
+                    c += d[1];
+                }
+                if (playable(r, c)) moves[n++] = MoveGenerator.move(from, Position.square(r, c));
+            }
+        }
+        CODE_MOVES = java.util.Arrays.copyOf(moves, n);
+        MOVE_CODES = n;
+        for (int code = 0; code < n; code++) CODE_OF_MOVE[CODE_MOVES[code]] = (short) code;
+        if (n > UNDO) throw new IllegalStateException("Too many move codes: " + n);
+    }
+
+    private BinaryRecord() {
+    }
+
+    private static boolean playable(int row, int col) {
+        return row >= 1 && row < Position.ROWS && col >= 0 && col < Position.COLS;
+    }
+
+    // Byte code of a move, or -1 if it is not a step or river jump
+    static int moveCode(int move) {
+        return move >= 0 && move < CODE_OF_MOVE.length ? CODE_OF_MOVE[move] : -1;
+    }
+
+    static int codeMove(int code) {
+        return CODE_MOVES[code];
+    }
+
+    // Lines as written by Chess: "\n" after every line
+    public static byte[] encode(List<String> lines) {
+        return encode(lines, 0);
+    }
+
+    // A whole text record, keeping its line endings
+    public static byte[] encodeText(byte[] text) throws IOException {
+        // Strict decoding: malformed UTF-8 is refused rather than altered
+        String s = StandardCharsets.UTF_8.newDecoder().decode(java.nio.ByteBuffer.wrap(text)).toString();
+        int newline = s.indexOf('\n');
+        int format = newline > 0 && s.charAt(newline - 1) == '\r' ? CRLF : 0;
+        String separator = format == CRLF ? "\r\n" : "\n";
+        List<String> lines = new ArrayList<>(java.util.Arrays.asList(s.split(separator, -1)));
+        // The piece after the last separator is empty unless the last line is unterminated
+        if (lines.get(lines.size() - 1).isEmpty()) lines.remove(lines.size() - 1);
+        else format |= NO_FINAL_NEWLINE;
+        return encode(lines, format);
+    }
+
+    private static byte[] encode(List<String> lines, int format) {
+        String red = "", blue = "";
+        for (String line : lines) {
+            String[] tok = line.split(" ", -1);
+            if (tok.length == 3 && tok[0].equals("start") && !tok[1].isEmpty() && !tok[2].isEmpty()) {
+                red = tok[1];
+                blue = tok[2];
+                break;
+            }
+        }
+        String start = "start " + red + " " + blue;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + lines.size());
+        out.write(MAGIC, 0, MAGIC.length);
+        writeVarint(out, STANDARD_START);
+        writeVarint(out, format);
+        writeString(out, red);
+        writeString(out, blue);
+        for (String line : lines) {
+            int code = line.startsWith("move ") ? moveCode(parseMove(line.substring(5))) : -1;
+            // Only the exact text the move decodes to is stored as a code, so decoding is lossless
+            if (code >= 0 && line.equals("move " + Perft.moveName(CODE_MOVES[code]))) {
+                out.write(code);
+            } else if (line.equals("undo")) {
+                out.write(UNDO);
+            } else if (line.equals("stop")) {
+                out.write(STOP);
+            } else if (!red.isEmpty() && line.equals(start)) {
+                out.write(START);
+            } else {
+                out.write(TEXT);
+                writeString(out, line);
+            }
+        }
+        out.write(END);
+        CRC32 crc = new CRC32();
+        byte[] body = out.toByteArray();
+        crc.update(body);
+        long sum = crc.getValue();
+        for (int shift = 24; shift >= 0; shift -= 8) out.write((int) (sum >>> shift) & 0xFF);
+        return out.toByteArray();
+    }
+
+    public static List<String> decode(byte[] data) throws IOException {
+        return decode(data, new int[1]);
+    }
+
+    // The text record data was encoded from
+    public static byte[] decodeText(byte[] data) throws IOException {
+        int[] format = new int[1];
+        List<String> lines = decode(data, format);
+        String separator = (format[0] & CRLF) != 0 ? "\r\n" : "\n";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            text.append(lines.get(i));
+            if (i < lines.size() - 1 || (format[0] & NO_FINAL_NEWLINE) == 0) text.append(separator);
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> decode(byte[] data, int[] format) throws IOException {
+        Decoder decoder = new Decoder(new java.io.ByteArrayInputStream(data));
+        format[0] = decoder.format;
+        List<String> lines = new ArrayList<>();
+        for (String line = decoder.nextLine(); line != null; line = decoder.nextLine()) lines.add(line);
+        return lines;
+    }
+
+    // Reads a binary record one line at a time from a (buffered) stream, so a record of any size
+    // is decoded in constant memory. The checksum is checked when END is reached.
+    static final class Decoder {
+        private final CRC32 crc = new CRC32();
+        private final java.io.InputStream in;
+        final int format;
+        private final String red;
+        private final String blue;
+        private long offset;
+        private boolean done;
+
+        Decoder(java.io.InputStream stream) throws IOException {
+            in = new java.util.zip.CheckedInputStream(stream, crc);
+            for (byte b : MAGIC) {
+                if (readByte() != (b & 0xFF)) throw new IOException("Not a binary record");
+            }
+            int startId = readVarint();
+            if (startId != STANDARD_START) throw new IOException("Unknown start position " + startId);
+            format = readVarint();
+            red = readString();
+            blue = readString();
+        }
+
+        // Next line of the record, or null after the last one
+        String nextLine() throws IOException {
+            if (done) return null;
+            int code = readByte();
+            if (code < MOVE_CODES) return "move " + Perft.moveName(CODE_MOVES[code]);
+            if (code == UNDO) return "undo";
+            if (code == STOP) return "stop";
+            if (code == START) return "start " + red + " " + blue;
+            if (code == TEXT) return readString();
+            if (code != END) throw new IOException("Bad code " + code + " at byte " + (offset - 1));
+            long expected = crc.getValue();
+            long sum = 0;
+            for (int i = 0; i < 4; i++) sum = sum << 8 | readByte();
+            if (sum != expected) throw new IOException("Binary record checksum mismatch");
+            if (in.read() >= 0) throw new IOException("Data after the end of the binary record");
+            done = true;
+            return null;
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) throw new IOException("Binary record is truncated");
+            offset++;
+            return b;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if (b < 0x80) return value;
+            }
+            throw new IOException("Bad varint at byte " + offset);
+        }
+
+        private String readString() throws IOException {
+            int length = readVarint();
+            if (length < 0) throw new IOException("Bad string length at byte " + offset);
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length < length) throw new IOException("Binary record is truncated");
+            offset += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static boolean isBinary(byte[] data) {
+        if (data.length < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    // dir/baseName.record, or dir/baseName.brecord if only that exists
+    public static Path locate(Path dir, String baseName) {
+        Path text = dir.resolve(baseName + TEXT_EXTENSION);
+        Path binary = dir.resolve(baseName + EXTENSION);
+        return !Files.exists(text) && Files.exists(binary) ? binary : text;
+    }
+
+    // "C7 D7" -> move, or -1
+    static int parseMove(String text) {
+        if (text.length() != 5 || text.charAt(2) != ' ') return -1;
+        int fromCol = text.charAt(0) - 'A', fromRow = text.charAt(1) - '0';
+        int toCol = text.charAt(3) - 'A', toRow = text.charAt(4) - '0';
+        if (!playable(fromRow, fromCol) || !playable(toRow, toCol)) return -1;
+        return MoveGenerator.move(Position.square(fromRow, fromCol), Position.square(toRow, toCol));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    // Convert file to the other format next to it; returns the new file
+    public static Path convert(Path file, boolean toBinary) throws IOException {
+        String name = file.getFileName().toString();
+        String from = toBinary ? TEXT_EXTENSION : EXTENSION;
+        String to = toBinary ? EXTENSION : TEXT_EXTENSION;
+        if (!name.endsWith(from)) throw new IOException("Expected a " + from + " file: " + file);
+        Path target = file.resolveSibling(name.substring(0, name.length() - from.length()) + to);
+        byte[] data = Files.readAllBytes(file);
+        Files.write(target, toBinary ? encodeText(data) : decodeText(data));
+        return target;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("encode") || args[0].equals("decode"))) {
+            System.out.println("Usage: java BinaryRecord encode|decode <file or directory>...");
+            return;
+        }
+        boolean toBinary = args[0].equals("encode");
+        long before = 0, after = 0;
+        int files = 0;
+        for (int i = 1; i < args.length; i++) {
+            Path path = Paths.get(args[i]);
+            List<Path> sources = new ArrayList<>();
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> dir = Files.newDirectoryStream(path, "*" + (toBinary ? TEXT_EXTENSION : EXTENSION))) {
+                    for (Path file : dir) sources.add(file);
+                }
+            } else {
+                sources.add(path);
+            }
+            for (Path source : sources) {
+                try {
+                    Path target = convert(source, toBinary);
+                    before += Files.size(source);
+                    after += Files.size(target);
+                    files++;
+                } catch (IOException e) {
+                    System.err.println(source + ": " + e.getMessage());
+                }
+            }
+        }
+        System.out.printf("%d files, %d -> %d bytes%n", files, before, after);
+    }
+}
@@ -6,91 +6,62 @@ import java.nio.file.*;
 import java.util.*;
 
 public class Chess {
-    // Array to store the most recent 3 board states
-    private Cell[][][] boardHistory;
-    private int boardHistoryIndex;
-    private int boardHistoryCount;
+    // Growable list of move deltas (see Position.make). Entries below moveHistoryPly have been
+    // played; entries from moveHistoryPly up to moveHistoryEnd were stepped back and can be redone.
+    private int[] moveHistory;
+    private int moveHistoryPly;
+    private int moveHistoryEnd;
     private boolean gameOver = false;
     // Name of winner (set when game ends)
     private String winnerName = null;
+    private String winMessage = null;
     private boolean review = false;
 
     // Undo limit per player
     private static final int MAX_UNDO = 3;
+    private static final int INITIAL_HISTORY = 64;
     public int redUndoRemaining = MAX_UNDO;
     public int blueUndoRemaining = MAX_UNDO;
 
     public static final int ROWS = 10;  
     public static final int COLS = 7;
     public Cell[][] board = new Cell[ROWS][COLS];
+    // Bitboard core used for all rule checks; board is kept in sync as the view for the UIs
+    private final Position position = new Position();
 
     public Chess() {
-        // Initialize board history for undo
-        boardHistory = new Cell[3][][];
-        boardHistoryIndex = 0;
-        boardHistoryCount = 0;
+        // Initialize move history for undo
+        initializeBoardHistory();
 
         redUndoRemaining = MAX_UNDO;
         blueUndoRemaining = MAX_UNDO;
     }    
 
-    private void checkWinCondition() {
-        int redCount = 0, blueCount = 0;
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                Piece p = board[i][j].piece;
-                if (p != null) {
-                    if (p.owner.side == Side.RED) redCount++;
-                    else if (p.owner.side == Side.BLUE) blueCount++;
-                }
-            }
-        }
-        if (redCount == 0) {
-            String msg = bluePlayer.name + " (Blue) wins by capturing all opponent's pieces!";
-            System.out.println(msg);
-            try {
-                logEvent(msg);
-            } catch (IOException e) {
-                System.err.println("Failed to log event: " + e.getMessage());
-            }
+    // Decides the game after a move; sets winnerName/winMessage and returns the result line, no console output
+    private String checkWinCondition() {
+        String msg = null;
+        if (position.count(Position.RED) == 0) {
+            msg = bluePlayer.name + " (Blue) wins by capturing all opponent's pieces!";
             winnerName = bluePlayer.name + " (Blue)";
-            gameOver = true;
-        } else if (blueCount == 0) {
-            String msg = redPlayer.name + " (Red) wins by capturing all opponent's pieces!";
-            System.out.println(msg);
-            try {
-                logEvent(msg);
-            } catch (IOException e) {
-                System.err.println("Failed to log event: " + e.getMessage());
-            }
+        } else if (position.count(Position.BLUE) == 0) {
+            msg = redPlayer.name + " (Red) wins by capturing all opponent's pieces!";
             winnerName = redPlayer.name + " (Red)";
-            gameOver = true;
-        }
-
-        // Check for den entry
-        if (!gameOver) {
-            if (board[1][3].piece != null && board[1][3].piece.owner.side == Side.RED) {
-                String msg = redPlayer.name + " (Red) wins by entering Blue's den!";
-                System.out.println(msg);
-                try {
-                    logEvent(msg);
-                } catch (IOException e) {
-                    System.err.println("Failed to log event: " + e.getMessage());
-                }
+        } else {
+            // Check for den entry
+            int inBlueDen = position.pieceAt(Position.BLUE_DEN);
+            int inRedDen = position.pieceAt(Position.RED_DEN);
+            if (inBlueDen != Position.EMPTY && Position.sideOf(inBlueDen) == Position.RED) {
+                msg = redPlayer.name + " (Red) wins by entering Blue's den!";
                 winnerName = redPlayer.name + " (Red)";
-                gameOver = true;
-            } else if (board[9][3].piece != null && board[9][3].piece.owner.side == Side.BLUE) {
-                String msg = bluePlayer.name + " (Blue) wins by entering Red's den!";
-                System.out.println(msg);
-                try {
-                    logEvent(msg);
-                } catch (IOException e) {
-                    System.err.println("Failed to log event: " + e.getMessage());
-                }
+            } else if (inRedDen != Position.EMPTY && Position.sideOf(inRedDen) == Position.BLUE) {
+                msg = bluePlayer.name + " (Blue) wins by entering Red's den!";
                 winnerName = bluePlayer.name + " (Blue)";
-                gameOver = true;
             }
         }
+        if (msg == null) return null;
+        gameOver = true;
+        winMessage = msg;
+        return msg;
     }
 
     public boolean isGameOver() {
@@ -101,6 +72,11 @@ public class Chess {
         return winnerName;
     }
 
+    // How the game was won, e.g. "Simon (Red) wins by entering Blue's den!"
+    public String getWinMessage() {
+        return winMessage;
+    }
+
     private void placePieces() {
         // RED pieces (shifted down)
         board[9][6].piece = new Piece(7, redPlayer); // Lion 
@@ -123,236 +99,255 @@ public class Chess {
         board[3][0].piece = new Piece(1, bluePlayer); // Rat
     }    
 
-    public int countRemainingPieces(Side side) {
-        int count = 0;
+    // Rebuild the bitboard core from the board view (setup and load only).
+    // The view is switched over to the shared Piece instances so later moves never allocate.
+    private void syncPosition() {
+        position.clear();
         for (int i = 0; i < ROWS; i++) {
             for (int j = 0; j < COLS; j++) {
                 Piece p = board[i][j].piece;
-                if (p != null && p.owner != null && p.owner.side == side) count++;
+                if (p != null) {
+                    int code = Position.code(sideIndex(p.owner.side), p.rank);
+                    position.put(Position.square(i, j), code);
+                    board[i][j].piece = pieceObjects[code];
+                }
             }
         }
-        return count;
+        position.setSideToMove(sideIndex(currentPlayer.side));
     }
 
-    // Capture logic: returns true if capture is allowed, and performs the capture
-    private boolean Capture(Piece attacker, Piece defender, Cell fromCell, Cell toCell) {
-        if (toCell.isTrap && toCell.denOwner == defender.owner.side) {
-            toCell.piece = null;
-            return true;
-        }
-        if (defender == null) return false;
-        // Rat (1) can capture Elephant (8), but Elephant cannot capture Rat
-        if (attacker.rank == 1 && defender.rank == 8) {
-            if (fromCell.isRiver == toCell.isRiver) {
-                toCell.piece = null;
-                return true;
-            } else {
-                System.out.println("Rat can only capture elephant if rat is on land.");
-                return false;
-            }
-        }
-        if (attacker.rank == 8 && defender.rank == 1) {
-            System.out.println("Elephant cannot capture rat.");
-            return false;
-        }
-        if (attacker.rank == 1 || defender.rank == 1) {
-            if (fromCell.isRiver != toCell.isRiver) {
-                System.out.println("Rat can only capture if both pieces are in the river or both are on land.");
-                return false;
-            }
-        }
-        if (attacker.rank >= defender.rank) {
-            toCell.piece = null;
-            return true;
-        }
-        return false;
+    // Copy the piece on square sq from the bitboard core into the board view
+    private void refreshCell(int sq) {
+        board[Position.row(sq)][Position.col(sq)].piece = pieceObjects[position.pieceAt(sq)];
     }
-    // Move a piece for the current player from (fromRow, fromCol) to (toRow, toCol)
-    public boolean movePiece(int fromRow, int fromCol, int toRow, int toCol) {
-        // Save a deep copy of the board before the move
-        Cell[][] boardCopy = new Cell[ROWS][COLS];
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                Cell c = board[i][j];
-                boardCopy[i][j] = new Cell(c.row, c.col);
-                boardCopy[i][j].isRiver = c.isRiver;
-                boardCopy[i][j].isTrap = c.isTrap;
-                boardCopy[i][j].isDen = c.isDen;
-                boardCopy[i][j].denOwner = c.denOwner;
-                if (c.piece != null) {
-                    boardCopy[i][j].piece = new Piece(c.piece.rank, c.piece.owner);
-                }
-            }
-        }
-        boardHistory[boardHistoryIndex] = boardCopy;
-        boardHistoryIndex = (boardHistoryIndex + 1) % 6;
-        if (boardHistoryCount < 6) boardHistoryCount++;
-        
-        Cell fromCell = board[fromRow][fromCol];
-        Cell toCell = board[toRow][toCol];
-
-        // prevent moving into the top action row
-        if (toRow == 0) {
-            System.out.println("Cannot move into action row.");
-            return false;
+
+    private static int sideIndex(Side side) {
+        return side == Side.BLUE ? Position.BLUE : Position.RED;
+    }
+
+    // Square (row * COLS + col) of a side's piece of the given rank, or -1 if it has been captured
+    public int findPiece(Side side, int rank) {
+        if (side == Side.NONE || rank < 1 || rank > 8) return -1;
+        return position.squareOf(sideIndex(side), rank);
+    }
+
+    // 64-bit Zobrist key of the current position (pieces and side to move)
+    public long getPositionHash() {
+        return position.getKey();
+    }
+
+    // Write every legal move for the current player into buffer (see MoveGenerator for the encoding)
+    // and return the number of moves written. Does not print or allocate.
+    public int generateLegalMoves(int[] buffer) {
+        return MoveGenerator.generateLegalMoves(position, buffer);
+    }
+
+    // Read-only access to the bitboard core; callers that want to search should copy it
+    public Position getPosition() {
+        return position;
+    }
+
+    public int countRemainingPieces(Side side) {
+        if (side == Side.NONE) return 0;
+        return position.count(sideIndex(side));
+    }
+
+    // Check a move for the current player without printing or changing anything.
+    // Throws IndexOutOfBoundsException if either square is off the board.
+    public MoveResult validateMove(int fromRow, int fromCol, int toRow, int toCol) {
+        if (!inBounds(fromRow, fromCol) || !inBounds(toRow, toCol)) {
+            throw new IndexOutOfBoundsException("Square out of board: " + fromRow + "," + fromCol + " -> " + toRow + "," + toCol);
         }
+        return MoveGenerator.validate(position, Position.square(fromRow, fromCol), Position.square(toRow, toCol));
+    }
 
-        int pieceRank = fromCell.piece != null ? fromCell.piece.rank : -1;
-        // Tiger (6) and Lion (7) can jump across river horizontally or vertically if no rat blocks the way
-        boolean isTigerOrLion = (pieceRank == 6 || pieceRank == 7);
-        boolean isStraightLine = (fromRow == toRow || fromCol == toCol);
-        int dRow = Math.abs(toRow - fromRow);
-        int dCol = Math.abs(toCol - fromCol);
-        boolean isJump = false;
-        if (isTigerOrLion && isStraightLine) {
-            // Check if jumping over river
-            if (fromRow == toRow) {
-                // Horizontal jump
-                int minCol = Math.min(fromCol, toCol);
-                int maxCol = Math.max(fromCol, toCol);
-                if (maxCol - minCol > 1) {
-                    boolean allRiver = true;
-                    for (int c = minCol + 1; c < maxCol; c++) {
-                        if (!board[fromRow][c].isRiver) {
-                            allRiver = false;
-                            break;
-                        }
-                        if (board[fromRow][c].piece != null && board[fromRow][c].piece.rank == 1) {
-                            System.out.println("Cannot jump: rat blocks the river.");
-                            return false;
-                        }
-                    }
-                    if (allRiver && board[toRow][toCol].isRiver == false && board[fromRow][minCol+1].isRiver) {
-                        isJump = true;
-                    }
-                }
-            } else if (fromCol == toCol) {
-                // Vertical jump
-                int minRow = Math.min(fromRow, toRow);
-                int maxRow = Math.max(fromRow, toRow);
-                if (maxRow - minRow > 1) {
-                    boolean allRiver = true;
-                    for (int r = minRow + 1; r < maxRow; r++) {
-                        if (!board[r][fromCol].isRiver) {
-                            allRiver = false;
-                            break;
-                        }
-                        if (board[r][fromCol].piece != null && board[r][fromCol].piece.rank == 1) {
-                            System.out.println("Cannot jump: rat blocks the river.");
-                            return false;
-                        }
-                    }
-                    if (allRiver && board[toRow][toCol].isRiver == false && board[minRow+1][fromCol].isRiver) {
-                        isJump = true;
-                    }
-                }
+    // Silent move: applies the move if legal and returns why not otherwise. Nothing is printed;
+    // the move and any win are still written to the game record.
+    public MoveResult tryMove(int fromRow, int fromCol, int toRow, int toCol) {
+        MoveResult result = validateMove(fromRow, fromCol, toRow, toCol);
+        if (result != MoveResult.OK) return result;
+        int from = Position.square(fromRow, fromCol);
+        int to = Position.square(toRow, toCol);
+
+        // Move the piece; any moves that were stepped back can no longer be redone
+        pushMove(position.make(from, to));
+        board[toRow][toCol].piece = board[fromRow][fromCol].piece;
+        board[fromRow][fromCol].piece = null;
+        currentPlayer = (currentPlayer == redPlayer) ? bluePlayer : redPlayer;
+        logMove(from, to);
+        return MoveResult.OK;
+    }
+
+    private void pushMove(int delta) {
+        if (moveHistoryPly == moveHistory.length) moveHistory = Arrays.copyOf(moveHistory, moveHistory.length * 2);
+        moveHistory[moveHistoryPly++] = delta;
+        moveHistoryEnd = moveHistoryPly;
+    }
+
+    // Log a played move (e.g. "move A7 A6") and, if it decided the game, the result
+    private void logMove(int from, int to) {
+        String result = checkWinCondition();
+        if (review) return;
+        try {
+            logEvent("move " + (char)('A' + Position.col(from)) + Position.row(from) + " " + (char)('A' + Position.col(to)) + Position.row(to));
+            if (result != null) {
+                logEvent(result);
+                flush(); // the game is decided: get the record onto disk now
             }
+        } catch (IOException e) {
+            System.err.println("Failed to log event: " + e.getMessage());
         }
+    }
 
-        if (!isJump && !((dRow == 1 && dCol == 0) || (dRow == 0 && dCol == 1))) {
-            System.out.println("Pieces can only move vertically or horizontally by one square, except tiger/lion can jump river.");
-            return false;
-        }
+    // Silent move given in MoveGenerator encoding, e.g. a move chosen by Engine
+    public MoveResult playMove(int move) {
+        int from = MoveGenerator.from(move), to = MoveGenerator.to(move);
+        return tryMove(Position.row(from), Position.col(from), Position.row(to), Position.col(to));
+    }
 
-        // Only rat (1) can move into or out of river
-        boolean fromRiver = fromCell.isRiver;
-        boolean toRiver = toCell.isRiver;
-        if (!isJump && (fromRiver || toRiver) && pieceRank != 1) {
-            System.out.println("Only the rat can move into or out of water.");
-            return false;
-        }
-        if (fromCell.piece == null) {
-            System.out.println("No piece at the source position.");
-            return false;
-        }
-        if (fromCell.piece.owner != currentPlayer) {
-            System.out.println("You can only move your own pieces.");
-            return false;
-        }
-        if (toCell.piece != null && toCell.piece.owner == currentPlayer) {
-            System.out.println("Cannot move to a cell occupied by your own piece.");
+    // Move a piece for the current player from (fromRow, fromCol) to (toRow, toCol),
+    // printing the reason for a rejected move and the result of a winning one
+    public boolean movePiece(int fromRow, int fromCol, int toRow, int toCol) {
+        MoveResult result = tryMove(fromRow, fromCol, toRow, toCol);
+        if (result != MoveResult.OK) {
+            System.out.println(result.message);
+            if (result.isCaptureRule()) System.out.println(MoveResult.RANK_TOO_LOW.message);
             return false;
         }
+        if (gameOver) System.out.println(winMessage);
+        return true;
+    }
 
-        // If destination has opponent's piece, try to capture
-        if (toCell.piece != null && toCell.piece.owner != currentPlayer) {
-            if (!Capture(fromCell.piece, toCell.piece, fromCell, toCell)) {
-                System.out.println("Cannot capture: your piece's rank is too low or not allowed by special rules.");
-                return false;
-            }
-        }
-
-        // Move the piece
-        toCell.piece = fromCell.piece;
-        fromCell.piece = null;
+    // Number of moves currently played (stepBack lowers it, stepForward raises it)
+    public int getPly() {
+        return moveHistoryPly;
+    }
 
-        // Log the move (e.g. "move A7 A6")
-        try {
-            logEvent("move " + (char)('A' + fromCol) + fromRow + " " + (char)('A' + toCol) + toRow);
-        } catch (Exception ignore) { }
+    // Number of moves that can be redone with stepForward
+    public int getRedoCount() {
+        return moveHistoryEnd - moveHistoryPly;
+    }
 
+    // Take back the last move with no undo quota and no logging, e.g. to review a game.
+    // Returns false if there is nothing to take back.
+    public boolean stepBack() {
+        if (moveHistoryPly == 0) return false;
+        int delta = moveHistory[--moveHistoryPly];
+        position.unmake(delta);
+        refreshCell(Position.deltaFrom(delta));
+        refreshCell(Position.deltaTo(delta));
         currentPlayer = (currentPlayer == redPlayer) ? bluePlayer : redPlayer;
+        if (gameOver && !position.isGameOver()) {
+            gameOver = false;
+            winnerName = null;
+            winMessage = null;
+        }
+        return true;
+    }
 
-        // Check win condition after move
+    // Replay the next move that was stepped back, with no logging. Returns false if there is none.
+    public boolean stepForward() {
+        if (moveHistoryPly == moveHistoryEnd) return false;
+        int delta = moveHistory[moveHistoryPly++];
+        int from = Position.deltaFrom(delta), to = Position.deltaTo(delta);
+        position.make(from, to);
+        refreshCell(from);
+        refreshCell(to);
+        currentPlayer = (currentPlayer == redPlayer) ? bluePlayer : redPlayer;
         checkWinCondition();
-
         return true;
     }
 
-    public boolean undo() {
-        if (boardHistoryCount == 0) {
-            System.out.println("No moves to undo.");
-            return false;
-        }
+    // Silent undo of the last move for players: charged to the player who made it (MAX_UNDO each)
+    public MoveResult tryUndo() {
+        if (moveHistoryPly == 0) return MoveResult.NOTHING_TO_UNDO;
 
         // Check undo allowance for the player who is invoking undo
         boolean callerIsRed = (currentPlayer == redPlayer);
-        if (callerIsRed && blueUndoRemaining <= 0) {
-            System.out.println("No undos remaining for " + bluePlayer.name + ".");
-            return false;
-        }
-        if (!callerIsRed && redUndoRemaining <= 0) {
-            System.out.println("No undos remaining for " + redPlayer.name + ".");
-            return false;
-        }
-
-        // Calculate the index of the previous board state
-        int prevIndex = (boardHistoryIndex - 1 + 6) % (6);
+        if ((callerIsRed ? blueUndoRemaining : redUndoRemaining) <= 0) return MoveResult.NO_UNDOS_REMAINING;
 
-        // Deep copy the previous board state into the current board
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                Cell src = boardHistory[prevIndex][i][j];
-                board[i][j] = new Cell(src.row, src.col);
-                board[i][j].isRiver = src.isRiver;
-                board[i][j].isTrap = src.isTrap;
-                board[i][j].isDen = src.isDen;
-                board[i][j].denOwner = src.denOwner;
-                if (src.piece != null) {
-                    // Assign the correct owner reference
-                    Player owner = (src.piece.owner.side == Side.RED) ? redPlayer : bluePlayer;
-                    board[i][j].piece = new Piece(src.piece.rank, owner);
-                }
-            }
-        }
-        // Update boardHistoryIndex and boardHistoryCount
-        boardHistoryIndex = prevIndex;
-        boardHistoryCount--;
-        // Switch current player back
-        currentPlayer = (currentPlayer == redPlayer) ? bluePlayer : redPlayer;
+        stepBack();
         // decrement caller's remaining undos
-        if (callerIsRed) {
-            blueUndoRemaining--;
-            System.out.println("Undo successful. " + bluePlayer.name + " has " + blueUndoRemaining + " undos remaining.");
-        } else {
-            redUndoRemaining--;
-            System.out.println("Undo successful. " + redPlayer.name + " has " + redUndoRemaining + " undos remaining.");
-        }
+        if (callerIsRed) blueUndoRemaining--;
+        else redUndoRemaining--;
         try {
             logEvent("undo");
         } catch (IOException e) {
             System.err.println("Failed to log undo event: " + e.getMessage());
         }
+        return MoveResult.OK;
+    }
+
+    // Silent undo of side's last move against the computer: the reply played after it is taken back
+    // too, so side is to move again. Charged once to side; each move taken back is logged as "undo".
+    public MoveResult tryUndoTurn(Side side) {
+        // side to move: the last move is the opponent's reply, so two moves go back
+        int plies = currentPlayer.side == side ? 2 : 1;
+        if (moveHistoryPly < plies) return MoveResult.NOTHING_TO_UNDO;
+        if ((side == Side.RED ? redUndoRemaining : blueUndoRemaining) <= 0) return MoveResult.NO_UNDOS_REMAINING;
+
+        for (int i = 0; i < plies; i++) {
+            stepBack();
+            try {
+                logEvent("undo");
+            } catch (IOException e) {
+                System.err.println("Failed to log undo event: " + e.getMessage());
+            }
+        }
+        if (side == Side.RED) redUndoRemaining--;
+        else blueUndoRemaining--;
+        return MoveResult.OK;
+    }
+
+    // Silent redo for players: replays the last undone move and records it as a normal move.
+    // Undos spent are not refunded.
+    public MoveResult tryRedo() {
+        if (moveHistoryPly == moveHistoryEnd) return MoveResult.NOTHING_TO_REDO;
+        int delta = moveHistory[moveHistoryPly];
+        stepForward();
+        logMove(Position.deltaFrom(delta), Position.deltaTo(delta));
+        return MoveResult.OK;
+    }
+
+    public boolean redo() {
+        MoveResult result = tryRedo();
+        if (result != MoveResult.OK) {
+            System.out.println(result.message);
+            return false;
+        }
+        System.out.println("Redo successful.");
+        if (gameOver) System.out.println(winMessage);
+        return true;
+    }
+
+    public boolean undo() {
+        // The player charged for an undo is the one who made the last move
+        Player charged = (currentPlayer == redPlayer) ? bluePlayer : redPlayer;
+        MoveResult result = tryUndo();
+        if (result == MoveResult.NO_UNDOS_REMAINING) {
+            System.out.println("No undos remaining for " + charged.name + ".");
+            return false;
+        } else if (result != MoveResult.OK) {
+            System.out.println(result.message);
+            return false;
+        }
+        int left = (charged == redPlayer) ? redUndoRemaining : blueUndoRemaining;
+        System.out.println("Undo successful. " + charged.name + " has " + left + " undos remaining.");
+        return true;
+    }
+
+    public boolean undoTurn(Side side) {
+        Player charged = (side == Side.RED) ? redPlayer : bluePlayer;
+        MoveResult result = tryUndoTurn(side);
+        if (result == MoveResult.NO_UNDOS_REMAINING) {
+            System.out.println("No undos remaining for " + charged.name + ".");
+            return false;
+        } else if (result != MoveResult.OK) {
+            System.out.println(result.message);
+            return false;
+        }
+        int left = (side == Side.RED) ? redUndoRemaining : blueUndoRemaining;
+        System.out.println("Undo successful. " + charged.name + " has " + left + " undos remaining.");
         return true;
     }
 
@@ -376,6 +371,17 @@ public class Chess {
 
     private final Player redPlayer = new Player(Side.RED, "Red");
     private final Player bluePlayer = new Player(Side.BLUE, "Blue");
+    // One shared Piece per piece code (index 0 = empty) used by the board view
+    private final Piece[] pieceObjects = createPieceObjects();
+
+    private Piece[] createPieceObjects() {
+        Piece[] pieces = new Piece[Position.PIECE_CODES];
+        for (int rank = 1; rank <= 8; rank++) {
+            pieces[Position.code(Position.RED, rank)] = new Piece(rank, redPlayer);
+            pieces[Position.code(Position.BLUE, rank)] = new Piece(rank, bluePlayer);
+        }
+        return pieces;
+    }
     private Player currentPlayer = redPlayer;
 
     public void setPlayerName(Side side, String name) {
@@ -386,6 +392,10 @@ public class Chess {
         }
     }
     
+    public String getPlayerName(Side side) {
+        return side == Side.BLUE ? bluePlayer.name : redPlayer.name;
+    }
+
     public Player getCurrentPlayer() {
         return currentPlayer;
     }
@@ -415,6 +425,8 @@ public class Chess {
         public boolean isTrap;
         public boolean isDen;
         public Side denOwner;
+        // Label of an action button in row 0 (e.g. "Undo"), null for board squares
+        public String actionLabel;
 
         public Cell(int row, int col) {
             this.row = row;
@@ -429,6 +441,8 @@ public class Chess {
 
     // Current log file name for this game session 
     private String currentLogFileName = null;
+    // Open record file of this game session; events are written in the background
+    private GameLogWriter gameLog;
 
     // Starts a new game by initializing the board and placing pieces
     public void GameSetUp(boolean rev) throws IOException {
@@ -441,47 +455,58 @@ public class Chess {
             review = true;
             return;
         }
-        // Create record folder if it doesn't exist
-        File recordDir = new File("record");
-        if (!recordDir.exists()) {
-            recordDir.mkdir();
-        }
-        // Find next available log file name
-        int logNum = getNextLogNumber(recordDir, ".record");
-        String logFileName = "record/game_log_" + logNum + ".record";
-        currentLogFileName = logFileName;
-        try (FileWriter fw = new FileWriter(logFileName, false)) {
-            fw.write("start " + redPlayer.name + " " + bluePlayer.name + System.lineSeparator());
+        close();
+        try {
+            // Claims the next record number, creating the record folder if it doesn't exist
+            int logNum = FileNumberAllocator.allocate(Paths.get("record"), "game_log_", ".record");
+            String logFileName = "record/game_log_" + logNum + ".record";
+            currentLogFileName = logFileName;
+            gameLog = new GameLogWriter(Paths.get(logFileName));
+            gameLog.log("start " + redPlayer.name + " " + bluePlayer.name);
         } catch (IOException e) {
             System.err.println("Failed to create game log: " + e.getMessage());
         }
     }
 
-    // Helper to get next available log number in record folder
+    // Write every logged event of this game to its record file
+    public void flush() {
+        if (gameLog != null) gameLog.flush();
+    }
+
+    // Flush and close the record file, e.g. when the game is left
+    public void close() {
+        if (gameLog != null) gameLog.close();
+        gameLog = null;
+    }
+
+    // Next free number for game_log_N.record (or game_save_N.jungle if type is ".jungle") in recordDir,
+    // without claiming it. Kept in a counter file, see FileNumberAllocator.
     public int getNextLogNumber(File recordDir, String type) {
-        String mid;
-        int diff;
-        if (type.equals(".jungle")){mid = "save";diff=10;}
-        else {mid = "log";diff=9;}
-        String[] files = recordDir.list();
-        int maxNum = 0;
-        if (files != null) {
-            for (String f : files) {
-                if (f.matches("game_"+mid+"_\\d+\\"+type)) {
-                    try{
-                        int num = Integer.parseInt(f.substring(diff, f.indexOf(type)));
-                        if (num > maxNum) maxNum = num;
-                    } catch (NumberFormatException ignore) {}
-                }
-            }
+        try {
+            return FileNumberAllocator.peek(recordDir.toPath(), filePrefix(type), type);
+        } catch (IOException e) {
+            System.err.println("Failed to read " + recordDir + ": " + e.getMessage());
+            return 1;
         }
-        return maxNum + 1;
+    }
+
+    private static String filePrefix(String type) {
+        return type.equals(".jungle") ? "game_save_" : "game_log_";
     }
 
     // Logs a user event/command to the current game log file inside the record folder.
     // Falls back to top-level "game_log.record" if no current game log is set or writing fails.
     public void logEvent(String event) throws IOException {
         if (review) return; // do not log events in review mode
+        if (gameLog != null) {
+            try {
+                gameLog.log(event);
+                return;
+            } catch (IOException e) {
+                System.err.println("Failed to write to log (" + gameLog.getFile() + "): " + e.getMessage());
+            }
+        }
+        // No open writer (e.g. after close()): append with one open per event
         String target = (currentLogFileName != null) ? currentLogFileName : "game_log.record";
         try (FileWriter fw = new FileWriter(target, true)) {
             fw.write(event + System.lineSeparator());
@@ -498,11 +523,11 @@ public class Chess {
         }
     }
 
-    // Initialize the board history array and counters
+    // Initialize the move history and counters
     private void initializeBoardHistory() {
-        boardHistory = new Cell[6][][];
-        boardHistoryIndex = 0;
-        boardHistoryCount = 0;
+        moveHistory = new int[INITIAL_HISTORY];
+        moveHistoryPly = 0;
+        moveHistoryEnd = 0;
     }
 
     private void initializeBoard() {
@@ -518,6 +543,12 @@ public class Chess {
             for (int j = 4; j <= 5; j++)
                 board[i][j].isRiver = true;
 
+        // Action row buttons used by ChessUI
+        board[0][0].actionLabel = "Undo";
+        board[0][1].actionLabel = "Redo";
+        board[0][3].actionLabel = "Save";
+        board[0][6].actionLabel = "Stop";
+
         // Set dens (shifted down by 1 row)
         board[1][3].isDen = true;
         board[1][3].denOwner = Side.BLUE;
@@ -538,6 +569,7 @@ public class Chess {
         }
 
         placePieces();
+        syncPosition();
     }
 
     // Show the map, remaining piece number, current and next player
@@ -567,16 +599,8 @@ public class Chess {
             System.out.println();
         }
 
-        int redCount = 0, blueCount = 0;
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                Piece p = board[i][j].piece;
-                if (p != null) {
-                    if (p.owner.side == Side.RED) redCount++;
-                    else if (p.owner.side == Side.BLUE) blueCount++;
-                }
-            }
-        }
+        int redCount = position.count(Position.RED);
+        int blueCount = position.count(Position.BLUE);
 
         System.out.println("Remaining pieces: " + redPlayer.name + " (Red): " + redCount + ", " + bluePlayer.name + " (Blue): " + blueCount);
         System.out.println("Remaining undo: " + redPlayer.name + " (Red): " + redUndoRemaining + ", " + bluePlayer.name + " (Blue): " + blueUndoRemaining);
@@ -595,7 +619,7 @@ public class Chess {
         }
 
         String filename;
-        int next = getNextLogNumber(dir.toFile(), ".jungle");
+        int next = FileNumberAllocator.allocate(dir, filePrefix(".jungle"), ".jungle");
         filename = String.format("game_save_%d.jungle", next);
 
         Path file = dir.resolve(filename);
@@ -668,14 +692,14 @@ public class Chess {
         gameOver = false;
         winnerName = null;
         initializeBoardHistory();
-        boardHistoryIndex = 0;
-        boardHistoryCount = 0;
         currentPlayer = redPlayer; // default until parsed
 
         // Set defaults for undo counters in case file doesn't include them
         redUndoRemaining = MAX_UNDO;
         blueUndoRemaining = MAX_UNDO;
         review = true;
+        // each side has one piece per rank; the piece index relies on it
+        boolean[] placed = new boolean[Position.PIECE_CODES];
         for (String raw : lines) {
             if (raw == null) continue;
             String line = raw.trim();
@@ -720,8 +744,18 @@ public class Chess {
                             System.err.println("Skipping piece out of bounds: " + line);
                             continue;
                         }
+                        if (rank < 1 || rank > 8) {
+                            System.err.println("Skipping piece with invalid rank: " + line);
+                            continue;
+                        }
                         Player owner = "BLUE".equals(ownerStr) ? bluePlayer : redPlayer;
-                        board[r][c].piece = new Piece(rank, owner);
+                        int code = Position.code(sideIndex(owner.side), rank);
+                        if (placed[code] || board[r][c].piece != null) {
+                            System.err.println("Skipping duplicate piece: " + line);
+                            continue;
+                        }
+                        placed[code] = true;
+                        board[r][c].piece = pieceObjects[code];
                     } else {
                         System.err.println("Malformed piece line, skipping: " + line);
                     }
@@ -731,6 +765,7 @@ public class Chess {
             }
         }
 
+        syncPosition();
         System.out.println("Loaded save: " + file.toString());
         // Clear winner / gameOver in case save had game ended state handled differently
         gameOver = false;
@@ -7,9 +7,29 @@ public class ChessConUI {
     private Chess chess;
     private final Scanner scanner;
     private boolean loadGame= false;
+    // Side played by the computer (NONE = two human players)
+    private Chess.Side engineSide = Chess.Side.NONE;
+    private final Engine engine = new Engine();
+    // Time per move of the alpha-beta engine, set by "engine ... [ms]"
+    private long engineMillis = Engine.DEFAULT_TIME_LIMIT_MILLIS;
+    private final MctsEngine mcts = new MctsEngine();
+    private boolean useMcts = false;
+    // Endgame tablebases found in tablebase/, used by "solve" and the engine
+    private final List<Tablebase> tablebases = Tablebase.openAll(Paths.get(Tablebase.DIRECTORY));
 
     public ChessConUI() {
         scanner = new Scanner(System.in);
+        engine.setTablebases(tablebases);
+        engine.setBook(OpeningBook.openIfExists(Paths.get(OpeningBook.DEFAULT_FILE)));
+        engine.setEvaluation(Evaluation.loadIfExists(Paths.get(Evaluation.DEFAULT_FILE)));
+        engine.setListener(ChessConUI::printIteration);
+    }
+
+    // One line per completed search iteration, so a long think shows its progress
+    private static void printIteration(int depth, int score, long nodes, long millis, int[] pv) {
+        StringBuilder line = new StringBuilder("  depth " + depth + ", score " + score + ", " + nodes + " nodes, " + millis + " ms, pv");
+        for (int move : pv) line.append(' ').append(Perft.moveName(move));
+        System.out.println(line);
     }
 
     public static void main(String[] args) {
@@ -43,6 +63,7 @@ public class ChessConUI {
     }
 
     private void startGame() {
+        engineSide = Chess.Side.NONE;
         if(!loadGame)
         {
             chess = new Chess();
@@ -78,24 +99,41 @@ public class ChessConUI {
             } catch (RuntimeException e) {
                 System.err.println("Failed to show map: " + e.getMessage());
             }
-            System.out.print("Enter command (move [srcPos] [desPos] | undo | save | stop): ");
+            if (chess.getCurrentPlayer().side == engineSide) {
+                playEngineMove();
+                continue;
+            }
+            System.out.print("Enter command (move [srcPos] [desPos] | undo | redo | save | engine red|blue|off [ms] [mcts] | solve | stop): ");
             String input;
             input = scanner.nextLine().trim();
 
             if (input.equalsIgnoreCase("undo")) {
                 try {
-                    chess.undo();
+                    // Against the computer, take back its reply together with the human's move
+                    if (engineSide == Chess.Side.NONE) chess.undo();
+                    else chess.undoTurn(engineSide == Chess.Side.RED ? Chess.Side.BLUE : Chess.Side.RED);
                 } catch (RuntimeException e) {
                     System.err.println("Undo failed: " + e.getMessage());
                 }
+            } else if (input.equalsIgnoreCase("redo")) {
+                try {
+                    chess.redo();
+                } catch (RuntimeException e) {
+                    System.err.println("Redo failed: " + e.getMessage());
+                }
             } else if (input.equalsIgnoreCase("save")) {
                 try {
                     chess.saveGameToJungle();
                 } catch (IOException ioe) {
                     System.err.println("Save failed: " + ioe.getMessage());
                 }
+            } else if (input.toLowerCase().startsWith("engine")) {
+                setEngine(input.substring(6).trim().toLowerCase());
+            } else if (input.equalsIgnoreCase("solve")) {
+                solve();
             } else if (input.equalsIgnoreCase("stop")) {
                 System.out.println("Game stopped."); 
+                chess.close();
                 return;
             } else if (input.toLowerCase().startsWith("move")) {
                 String[] parts = input.substring(4).trim().toUpperCase().split("\\s+");
@@ -122,9 +160,83 @@ public class ChessConUI {
                 System.out.println("Unknown command.");
             }
         }
+        chess.close();
         System.out.println("Game over! Winner: " + chess.getWinnerName());
     }
 
+    // "engine red|blue|off [ms] [mcts]": let the computer play a side, optionally with a time per move,
+    // using alpha-beta or, with "mcts", Monte Carlo tree search
+    private void setEngine(String args) {
+        String[] parts = args.split("\\s+");
+        if (parts[0].equals("off")) {
+            engineSide = Chess.Side.NONE;
+            System.out.println("Engine off.");
+            return;
+        }
+        if (!parts[0].equals("red") && !parts[0].equals("blue")) {
+            System.out.println("Usage: engine red|blue|off [ms] [mcts]");
+            return;
+        }
+        boolean monteCarlo = false;
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].equals("mcts")) {
+                monteCarlo = true;
+            } else if (parts[i].matches("\\d+") && Long.parseLong(parts[i]) > 0) {
+                engineMillis = Long.parseLong(parts[i]);
+                mcts.setTimeLimitMillis(Long.parseLong(parts[i]));
+            } else {
+                System.out.println("Usage: engine red|blue|off [ms] [mcts]");
+                return;
+            }
+        }
+        useMcts = monteCarlo;
+        engineSide = parts[0].equals("red") ? Chess.Side.RED : Chess.Side.BLUE;
+        System.out.println("Engine plays " + engineSide + ".");
+    }
+
+    // "solve": look the current position up in the endgame tablebases
+    private void solve() {
+        Position pos = chess.getPosition();
+        Tablebase table = Tablebase.find(tablebases, pos);
+        if (table == null) {
+            System.out.println("Position not in any tablebase.");
+            return;
+        }
+        int value = table.probe(pos);
+        String player = chess.getPlayerName(chess.getCurrentPlayer().side);
+        int move = table.bestMove(pos);
+        String best = move < 0 ? "" : " Best move: " + Perft.moveName(move) + ".";
+        if (Tablebase.isWin(value)) {
+            System.out.println("Tablebase " + table.getName() + ": " + player + " wins in " + Tablebase.plies(value) + " plies." + best);
+        } else if (Tablebase.isLoss(value)) {
+            System.out.println("Tablebase " + table.getName() + ": " + player + " loses in " + Tablebase.plies(value) + " plies." + best);
+        } else {
+            System.out.println("Tablebase " + table.getName() + ": draw." + best);
+        }
+    }
+
+    private void playEngineMove() {
+        long start = System.nanoTime();
+        int move = useMcts ? mcts.findBestMove(chess) : engine.findBestMove(chess, engineMillis);
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        if (move < 0) {
+            System.out.println("Engine has no legal move.");
+            engineSide = Chess.Side.NONE;
+            return;
+        }
+        if (useMcts) {
+            System.out.println("Engine plays move " + Perft.moveName(move) + " (" + mcts.getPlayouts() + " playouts, "
+                    + (mcts.getPlayouts() * 1000 / millis) + " playouts/s)");
+        } else if (engine.isBookMove()) {
+            System.out.println("Engine plays move " + Perft.moveName(move) + " (book)");
+        } else {
+            System.out.println("Engine plays move " + Perft.moveName(move) + " (depth " + engine.getCompletedDepth()
+                    + ", " + engine.getNodes() + " nodes, " + (engine.getNodes() / millis) + " knps)");
+        }
+        int from = MoveGenerator.from(move), to = MoveGenerator.to(move);
+        chess.movePiece(Position.row(from), Position.col(from), Position.row(to), Position.col(to));
+    }
+
     // replay a .record file and offer replay modes (auto / step)
     void loadFromFile() throws IOException {
         System.out.print("Enter record number (e.g. 1, 11), or leave empty to go back to previous page: ");
@@ -134,42 +246,53 @@ public class ChessConUI {
             System.out.println("No record number provided.");
             return;
         }
-        if (!num.matches("\\d+")) {
-            System.out.println("Invalid record number.");
-            return;
+        RecordReader reader;
+        if (num.toLowerCase().startsWith(GameArchive.SOURCE_PREFIX)) {
+            // "archive:N": game N of the game archive
+            System.out.println("Attempting to load: " + num + " from " + GameArchive.DEFAULT_FILE);
+            try {
+                reader = GameArchive.openSource(num);
+            } catch (IOException e) {
+                System.out.println("Failed to read archive: " + e.getMessage());
+                return;
+            }
+        } else {
+            if (!num.matches("\\d+")) {
+                System.out.println("Invalid record number.");
+                return;
+            }
+
+            // game_log_N.record, or the binary game_log_N.brecord
+            java.nio.file.Path path = BinaryRecord.locate(Paths.get("record"), "game_log_" + num);
+            System.out.println("Attempting to load: " + path.toString());
+
+            try {
+                if (!Files.exists(path)) {
+                    System.out.println("Record file not found: " + path.toString());
+                    return;
+                }
+                reader = RecordReader.open(path);
+            } catch (IOException e) {
+                System.out.println("Failed to read file: " + e.getMessage());
+                return;
+            }
         }
-        
-        String filename = "game_log_" + num + ".record";
-        java.nio.file.Path path = Paths.get("record", filename);
-        System.out.println("Attempting to load: " + path.toString());
 
-        List<String> lines;
-        try {
-            if (!Files.exists(path)) {
-                System.out.println("Record file not found: " + path.toString());
+        // Commands are read as the replay goes, so a record of any size starts at once
+        try (RecordReader commands = reader) {
+            RecordReader.Command first = commands.next();
+            if (first == null) {
+                System.out.println("No commands found in file.");
                 return;
             }
-            lines = Files.readAllLines(path);
+            System.out.println("Loaded record " + num + ".");
+            replay(commands, first);
         } catch (IOException e) {
             System.out.println("Failed to read file: " + e.getMessage());
-            return;
-        }
-
-        List<String> cmds = new ArrayList<>();
-        for (String ln : lines) {
-            if (ln == null) continue;
-            String t = ln.trim();
-            if (t.isEmpty()) continue;
-            if (t.startsWith("#")) continue;
-            cmds.add(t);
-        }
-
-        if (cmds.isEmpty()) {
-            System.out.println("No commands found in file.");
-            return;
         }
+    }
 
-        System.out.println("Loaded " + cmds.size() + " commands.");
+    private void replay(RecordReader commands, RecordReader.Command first) throws IOException {
         String mode;
         while (true) {
             System.out.print("Replay mode? (auto | step | cancel): ");
@@ -187,25 +310,23 @@ public class ChessConUI {
         boolean stopReplay = false;
         boolean gameStarted = false; // track whether GameSetUp() has been called
 
-        for (String cmdLine : cmds) {
-            System.out.println(">> " + cmdLine);
-            if (cmdLine == null || cmdLine.trim().isEmpty()) continue;
+        for (RecordReader.Command cmd = first; cmd != null; cmd = commands.next()) {
+            System.out.println(">> " + cmd.text);
             try {
-                String lower = cmdLine.toLowerCase();
-                if (lower.startsWith("start")) {
-                    String[] tok = cmdLine.split("\\s+");
-                    if (tok.length >= 3) {
-                        chess.setPlayerName(Chess.Side.RED, tok[1]);
-                        chess.setPlayerName(Chess.Side.BLUE, tok[2]);
-                    } else if (tok.length == 2) {
+                if (cmd instanceof RecordReader.Start) {
+                    RecordReader.Start start = (RecordReader.Start) cmd;
+                    if (start.blue != null) {
+                        chess.setPlayerName(Chess.Side.RED, start.red);
+                        chess.setPlayerName(Chess.Side.BLUE, start.blue);
+                    } else if (start.red != null) {
                         chess.setRandomPlayerNames();
-                        chess.setPlayerName(Chess.Side.RED, tok[1]);
+                        chess.setPlayerName(Chess.Side.RED, start.red);
                     } else {
                         chess.setRandomPlayerNames();
                     }
                     chess.GameSetUp(true);
                     gameStarted = true;
-                } else if (lower.startsWith("move ")) {
+                } else if (cmd instanceof RecordReader.Move) {
                     // ensure the game is initialized before applying moves
                     if (!gameStarted) {
                         System.out.println("No explicit start found in record - starting game with random names.");
@@ -214,36 +335,31 @@ public class ChessConUI {
                         gameStarted = true;
                     }
 
-                    String payload = cmdLine.substring(5).trim().toUpperCase();
-                    String[] parts = payload.split("\\s+"); 
-                    if (parts.length == 2 && parts[0].length() == 2 && parts[1].length() == 2) {
+                    RecordReader.Move move = (RecordReader.Move) cmd;
+                    if (move.wellFormed) {
                         try {
-                            int fromCol = parts[0].charAt(0) - 'A';
-                            int fromRow = Character.getNumericValue(parts[0].charAt(1));
-                            int toCol = parts[1].charAt(0) - 'A';
-                            int toRow = Character.getNumericValue(parts[1].charAt(1));
-                            System.out.println(parts[0] + " -> " + parts[1]);
-                            chess.movePiece(fromRow, fromCol, toRow, toCol);
+                            System.out.println(move.from + " -> " + move.to);
+                            chess.movePiece(move.fromRow, move.fromCol, move.toRow, move.toCol);
                         } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
-                            System.out.println("Skipping malformed move: " + cmdLine);
+                            System.out.println("Skipping malformed move: " + cmd.text);
                         }
                     } else {
-                        System.out.println("Skipping malformed move: " + cmdLine);
+                        System.out.println("Skipping malformed move: " + cmd.text);
                     }
-                } else if (lower.equals("undo")) {
+                } else if (cmd instanceof RecordReader.Undo) {
                     if (!gameStarted) {
                         System.out.println("Ignoring undo before game start.");
                     } else {
                         chess.undo();
                     }
-                } else if (lower.equals("stop")) {
+                } else if (cmd instanceof RecordReader.Stop) {
                     System.out.println("Stop command encountered in record.");
                     stopReplay = true;
                 } else {
-                    System.out.println("Unknown command in record, ignoring: " + cmdLine);
+                    System.out.println("Unknown command in record, ignoring: " + cmd.text);
                 }
             } catch (RuntimeException e) {
-                System.out.println("Error executing command '" + cmdLine + "': " + e.getMessage());
+                System.out.println("Error executing command '" + cmd.text + "' (line " + cmd.line + "): " + e.getMessage());
             }
 
             try {
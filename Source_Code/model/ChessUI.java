@@ -13,9 +13,23 @@ public class ChessUI extends JFrame {
     private JPanel boardPanel;
     private JPanel controlPanel;
     private JPanel startPanel;
+    // Stops the engine's search early; enabled only while the computer is thinking
+    private JButton moveNowButton;
+    // Side played by the computer (NONE = two human players)
+    private Chess.Side engineSide = Chess.Side.NONE;
+    private final Engine engine = new Engine();
+    // Time per computer move, chosen in the start menu
+    private long engineMillis = Engine.DEFAULT_TIME_LIMIT_MILLIS;
+    // Pondering: the engine searches the predicted reply while the human thinks.
+    // ponderTask stays set until a later search has waited for it, since the engine is not re-entrant.
+    private Engine.Ponder ponder;
+    private int ponderMove = -1;
+    private SwingWorker<Integer, Void> ponderTask;
 
     public ChessUI() {
     chess = new Chess();
+        engine.setBook(OpeningBook.openIfExists(Paths.get(OpeningBook.DEFAULT_FILE)));
+        engine.setEvaluation(Evaluation.loadIfExists(Paths.get(Evaluation.DEFAULT_FILE)));
         setTitle("Jungle Chess");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
@@ -50,7 +64,19 @@ public class ChessUI extends JFrame {
         // Comment / feedback label at the bottom
         commentLabel = new JLabel("Welcome to Jungle Chess. Press Start to begin.");
         commentLabel.setHorizontalAlignment(SwingConstants.CENTER);
-        add(commentLabel, BorderLayout.PAGE_END);
+        moveNowButton = new JButton("Move now");
+        moveNowButton.setEnabled(false);
+        moveNowButton.addActionListener(e -> engine.stop());
+        JPanel bottomPanel = new JPanel(new BorderLayout());
+        bottomPanel.add(commentLabel, BorderLayout.CENTER);
+        bottomPanel.add(moveNowButton, BorderLayout.EAST);
+        add(bottomPanel, BorderLayout.PAGE_END);
+        engine.setListener((depth, score, nodes, millis, pv) -> SwingUtilities.invokeLater(() -> {
+            // Pondering also reports iterations; only show them while the human waits
+            if (moveNowButton.isEnabled()) {
+                commentLabel.setText("Computer is thinking... depth " + depth + ", " + nodes + " nodes, best " + Perft.moveName(pv[0]));
+            }
+        }));
 
         statusLabel = new JLabel();
         add(statusLabel, BorderLayout.NORTH);
@@ -76,14 +102,20 @@ public class ChessUI extends JFrame {
         startPanel.add(title);
         startPanel.add(Box.createVerticalStrut(20));
 
-        JPanel namesPanel = new JPanel(new GridLayout(2,2,5,5));
+        JPanel namesPanel = new JPanel(new GridLayout(4,2,5,5));
         namesPanel.add(new JLabel("Red player name:"));
         JTextField redNameField = new JTextField();
         namesPanel.add(redNameField);
         namesPanel.add(new JLabel("Blue player name:"));
         JTextField blueNameField = new JTextField();
         namesPanel.add(blueNameField);
-        namesPanel.setMaximumSize(new Dimension(400,80));
+        namesPanel.add(new JLabel("Computer plays:"));
+        JComboBox<String> engineBox = new JComboBox<>(new String[] {"None", "Red", "Blue"});
+        namesPanel.add(engineBox);
+        namesPanel.add(new JLabel("Computer time per move (ms):"));
+        JSpinner engineMillisSpinner = new JSpinner(new SpinnerNumberModel(engineMillis, 100L, 60000L, 100L));
+        namesPanel.add(engineMillisSpinner);
+        namesPanel.setMaximumSize(new Dimension(400,160));
         startPanel.add(namesPanel);
         startPanel.add(Box.createVerticalStrut(10));
 
@@ -98,6 +130,12 @@ public class ChessUI extends JFrame {
         btnRow.add(replayBtn);
         startPanel.add(btnRow);
 
+        engineBox.addActionListener(e -> {
+            String choice = (String) engineBox.getSelectedItem();
+            engineSide = "Red".equals(choice) ? Chess.Side.RED : "Blue".equals(choice) ? Chess.Side.BLUE : Chess.Side.NONE;
+        });
+        engineMillisSpinner.addChangeListener(e -> engineMillis = ((Number) engineMillisSpinner.getValue()).longValue());
+
         // action: load a saved .jungle file and continue
         loadBtn.addActionListener(e -> {
             String id = JOptionPane.showInputDialog(this, "Enter save id (e.g. 01 or 21):");
@@ -133,16 +171,17 @@ public class ChessUI extends JFrame {
             commentLabel.setText("Loaded save " + id + ". " + chess.getPlayerName(chess.getCurrentPlayer().side) + " to move.");
             revalidate();
             repaint();
+            maybeEngineMove(-1);
         });
 
         // action: replay a record file (auto or step)
         replayBtn.addActionListener(e -> {
-            String id = JOptionPane.showInputDialog(this, "Enter record number (e.g. 01 or 21):");
+            String id = JOptionPane.showInputDialog(this, "Enter record number (e.g. 01 or 21, or archive:N):");
             if (id == null) return;
             id = id.trim();
             if (id.matches("\\d")) id = "0" + id;
-            if (!id.matches("\\d{2}")) {
-                JOptionPane.showMessageDialog(this, "Invalid id. Use two digits like 01 or 21.", "Replay", JOptionPane.WARNING_MESSAGE);
+            if (!id.matches("\\d{2}") && !id.toLowerCase().matches(GameArchive.SOURCE_PREFIX + "\\d+")) {
+                JOptionPane.showMessageDialog(this, "Invalid id. Use two digits like 01 or 21, or archive:N.", "Replay", JOptionPane.WARNING_MESSAGE);
                 return;
             }
             String[] options = {"auto", "step", "cancel"};
@@ -212,6 +251,101 @@ public class ChessUI extends JFrame {
         commentLabel.setText("Game started. " + chess.getPlayerName(chess.getCurrentPlayer().side) + " to move.");
         revalidate();
         repaint();
+        maybeEngineMove(-1);
+    }
+
+    // If it is the computer's turn, search in the background and play the move on the EDT.
+    // lastMove is the human move just played (-1 if none), checked against the ponder prediction.
+    private void maybeEngineMove(int lastMove) {
+        if (chess.isGameOver() || chess.getCurrentPlayer().side != engineSide) {
+            stopPondering();
+            return;
+        }
+        final Chess game = chess;
+        final long millis = engineMillis;
+        final SwingWorker<Integer, Void> pending = ponderTask;
+        final boolean ponderHit = ponder != null && lastMove == ponderMove;
+        if (ponderHit) ponder.hit();
+        else stopPondering();
+        ponder = null;
+        ponderTask = null;
+        setInteractiveEnabled(false);
+        moveNowButton.setEnabled(true);
+        commentLabel.setText("Computer is thinking...");
+        SwingWorker<Integer, Void> worker = new SwingWorker<>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                if (pending != null) {
+                    // On a hit the ponder search becomes the real one; otherwise wait for it to stop
+                    int pondered = pending.get();
+                    if (ponderHit && pondered >= 0) return pondered;
+                }
+                return engine.findBestMove(game, millis);
+            }
+
+            @Override
+            protected void done() {
+                setInteractiveEnabled(true);
+                moveNowButton.setEnabled(false);
+                if (game != chess) return; // game was left while thinking
+                int move;
+                try {
+                    move = get();
+                } catch (Exception ex) {
+                    commentLabel.setText("Engine failed: " + ex.getMessage());
+                    return;
+                }
+                if (move < 0) {
+                    commentLabel.setText("Computer has no legal move.");
+                    return;
+                }
+                chess.playMove(move);
+                updateBoard();
+                updateStatus();
+                commentLabel.setText("Computer played " + Perft.moveName(move) + (engine.isBookMove() ? " (book)."
+                        : " (" + (ponderHit ? "ponder hit, " : "") + "depth " + engine.getCompletedDepth() + ", " + engine.getNodes() + " nodes)."));
+                if (chess.isGameOver()) {
+                    SwingUtilities.invokeLater(() -> showWinDialog());
+                } else {
+                    startPondering();
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    // Guess the human's reply from the transposition table and search the position after it
+    private void startPondering() {
+        Position current = chess.getPosition();
+        long entry = engine.getTable().probe(current.getKey());
+        if (entry == TranspositionTable.MISS) return;
+        int predicted = TranspositionTable.moveOf(entry);
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int n = MoveGenerator.generateLegalMoves(current, moves);
+        boolean legal = false;
+        for (int i = 0; i < n; i++) legal |= moves[i] == predicted;
+        if (!legal) return;
+        final Position root = new Position(current);
+        final long millis = engineMillis;
+        root.make(MoveGenerator.from(predicted), MoveGenerator.to(predicted));
+        if (root.isGameOver()) return;
+        final Engine.Ponder control = new Engine.Ponder();
+        ponder = control;
+        ponderMove = predicted;
+        ponderTask = new SwingWorker<>() {
+            @Override
+            protected Integer doInBackground() {
+                return engine.ponder(root, control, millis);
+            }
+        };
+        ponderTask.execute();
+    }
+
+    // Abandon pondering; the task is left for the next search to wait on
+    private void stopPondering() {
+        if (ponder != null) ponder.stop();
+        ponder = null;
+        ponderMove = -1;
     }
 
     private void handleCellClick(int row, int col) {
@@ -220,16 +354,32 @@ public class ChessUI extends JFrame {
         if (clicked.actionLabel != null) {
             String act = clicked.actionLabel;
             if ("Undo".equalsIgnoreCase(act)) {
-                chess.undo();
+                stopPondering();
+                // Against the computer, take back its reply together with the human's move
+                MoveResult undone = engineSide == Chess.Side.NONE ? chess.tryUndo()
+                        : chess.tryUndoTurn(engineSide == Chess.Side.RED ? Chess.Side.BLUE : Chess.Side.RED);
                 updateBoard();
                 updateStatus();
-                commentLabel.setText("Undo performed.");
+                commentLabel.setText(undone == MoveResult.OK ? "Undo performed." : undone.message);
+                return;
+            } else if ("Redo".equalsIgnoreCase(act)) {
+                stopPondering();
+                MoveResult redone = chess.tryRedo();
+                updateBoard();
+                updateStatus();
+                commentLabel.setText(redone == MoveResult.OK ? "Redo performed." : redone.message);
+                if (chess.isGameOver()) {
+                    SwingUtilities.invokeLater(() -> showWinDialog());
+                }
+                maybeEngineMove(-1);
                 return;
             } else if ("Stop".equalsIgnoreCase(act)) {
+                stopPondering();
                 // return to start menu
                 boardPanel.setVisible(false);
                 controlPanel.setVisible(false);
                 selectedRow = selectedCol = -1;
+                chess.close();
                 chess = new Chess();
                 buildStartMenu();
                 commentLabel.setText("Returned to start menu.");
@@ -253,8 +403,8 @@ public class ChessUI extends JFrame {
                 commentLabel.setText("Selected piece at (" + row + "," + col + "). Click destination to move.");
             }
         } else {
-            boolean moved = chess.movePiece(selectedRow, selectedCol, row, col);
-            if (moved) {
+            MoveResult result = chess.tryMove(selectedRow, selectedCol, row, col);
+            if (result == MoveResult.OK) {
                 updateBoard();
                 updateStatus();
                 commentLabel.setText("Moved from (" + selectedRow + "," + selectedCol + ") to (" + row + "," + col + ").");
@@ -262,8 +412,13 @@ public class ChessUI extends JFrame {
                 if (chess.isGameOver()) {
                     SwingUtilities.invokeLater(() -> showWinDialog());
                 }
+                boardButtons[selectedRow][selectedCol].setBackground(null);
+                int played = MoveGenerator.move(Position.square(selectedRow, selectedCol), Position.square(row, col));
+                selectedRow = selectedCol = -1;
+                maybeEngineMove(played);
+                return;
             } else {
-                commentLabel.setText("Invalid move from (" + selectedRow + "," + selectedCol + ") to (" + row + "," + col + ").");
+                commentLabel.setText("Invalid move from (" + selectedRow + "," + selectedCol + ") to (" + row + "," + col + "): " + result.message);
             }
             boardButtons[selectedRow][selectedCol].setBackground(null);
             selectedRow = selectedCol = -1;
@@ -334,17 +489,9 @@ public class ChessUI extends JFrame {
     private void updateStatus() {
         Chess.Player current = chess.getCurrentPlayer();
         String sideLetter = current.side == Chess.Side.RED ? "R" : "B";
-        // Count remaining pieces
-        int redCount = 0, blueCount = 0;
-        for (int i = 0; i < Chess.ROWS; i++) {
-            for (int j = 0; j < Chess.COLS; j++) {
-                Chess.Piece p = chess.board[i][j].piece;
-                if (p != null) {
-                    if (p.owner.side == Chess.Side.RED) redCount++;
-                    else if (p.owner.side == Chess.Side.BLUE) blueCount++;
-                }
-            }
-        }
+        // Remaining pieces are tracked incrementally by Chess
+        int redCount = chess.countRemainingPieces(Chess.Side.RED);
+        int blueCount = chess.countRemainingPieces(Chess.Side.BLUE);
         String status = String.format("Current player: %s (%s) — Remaining: Red=%d Blue=%d — Undo left: Red=%d Blue=%d", chess.getPlayerName(current.side), sideLetter, redCount, blueCount, chess.redUndoRemaining, chess.blueUndoRemaining);
         statusLabel.setText(status);
     }
@@ -381,6 +528,7 @@ public class ChessUI extends JFrame {
             boardPanel.setVisible(false);
             controlPanel.setVisible(false);
             selectedRow = selectedCol = -1;
+            chess.close();
             chess = new Chess();
             buildStartMenu();
             statusLabel.setText("");
@@ -392,9 +540,11 @@ public class ChessUI extends JFrame {
        dialog.setLocationRelativeTo(this);
        dialog.setVisible(true);
     }
-    // Play a record file (record/game_log_XX.record). stepMode == true waits for user between commands.
+    // Play a record file (record/game_log_XX.record or .brecord), or game N of the game archive for id
+    // "archive:N". stepMode == true waits for user between commands.
     private void replayRecord(String id, boolean stepMode) throws IOException {
-        Path path = Paths.get("record", "game_log_" + id + ".record");
+        final boolean archived = id.toLowerCase().startsWith(GameArchive.SOURCE_PREFIX);
+        Path path = archived ? Paths.get(GameArchive.DEFAULT_FILE) : BinaryRecord.locate(Paths.get("record"), "game_log_" + id);
         if (!Files.exists(path)) {
             JOptionPane.showMessageDialog(this, "Record file not found: " + path.toString(), "Replay", JOptionPane.ERROR_MESSAGE);
             return;
@@ -415,66 +565,61 @@ public class ChessUI extends JFrame {
         SwingWorker<Void, String> worker = new SwingWorker<>() {
             @Override
             protected Void doInBackground() {
-                java.util.List<String> lines;
-                try {
-                    lines = Files.readAllLines(path);
+                // Commands are read as the replay goes, so it starts at once whatever the record size
+                try (RecordReader commands = archived ? GameArchive.openSource(id) : RecordReader.open(path)) {
+                    replay(commands);
                 } catch (IOException ex) {
                     publish("ERROR: " + ex.getMessage());
-                    return null;
                 }
+                return null;
+            }
 
+            private void replay(RecordReader commands) throws IOException {
                 // prepare fresh game for replay
                 chess = new Chess();
                 boolean started = false;
 
-                for (String raw : lines) {
-                    String cmd = raw == null ? "" : raw.trim();
-                    if (cmd.isEmpty() || cmd.startsWith("#")) continue;
+                for (RecordReader.Command command = commands.next(); command != null; command = commands.next()) {
+                    final String cmd = command.text;
                     publish(">> " + cmd);
 
                     try {
-                        String lower = cmd.toLowerCase();
-                        if (lower.startsWith("start")) {
-                            String[] tok = cmd.split("\\s+");
-                            if (tok.length >= 3) {
-                                chess.setPlayerName(Chess.Side.RED, tok[1]);
-                                chess.setPlayerName(Chess.Side.BLUE, tok[2]);
-                            } else if (tok.length == 2) {
-                                chess.setPlayerName(Chess.Side.RED, tok[1]);
+                        if (command instanceof RecordReader.Start) {
+                            RecordReader.Start start = (RecordReader.Start) command;
+                            if (start.blue != null) {
+                                chess.setPlayerName(Chess.Side.RED, start.red);
+                                chess.setPlayerName(Chess.Side.BLUE, start.blue);
+                            } else if (start.red != null) {
                                 chess.setRandomPlayerNames();
-                                chess.setPlayerName(Chess.Side.RED, tok[1]);
+                                chess.setPlayerName(Chess.Side.RED, start.red);
                             } else {
                                 chess.setRandomPlayerNames();
                             }
                             chess.GameSetUp(true);
                             started = true;
-                        } else if (lower.startsWith("move ")) {
+                        } else if (command instanceof RecordReader.Move) {
                             if (!started) {
                                 chess.setRandomPlayerNames();
                                 chess.GameSetUp(true);
                                 started = true;
                             }
-                            String payload = cmd.substring(5).trim().toUpperCase();
-                            String[] parts = payload.split("\\s+");
-                            if (parts.length == 2 && parts[0].length() == 2 && parts[1].length() == 2) {
-                                int fromCol = parts[0].charAt(0) - 'A';
-                                int fromRow = Character.getNumericValue(parts[0].charAt(1));
-                                int toCol = parts[1].charAt(0) - 'A';
-                                int toRow = Character.getNumericValue(parts[1].charAt(1));
-                                chess.movePiece(fromRow, fromCol, toRow, toCol);
+                            RecordReader.Move move = (RecordReader.Move) command;
+                            if (move.wellFormed) {
+                                MoveResult result = chess.tryMove(move.fromRow, move.fromCol, move.toRow, move.toCol);
+                                if (result != MoveResult.OK) publish("Rejected move " + cmd + ": " + result.message);
                             } else {
                                 publish("Skipping malformed move: " + cmd);
                             }
-                        } else if (lower.equals("undo")) {
-                            if (started) chess.undo();
-                        } else if (lower.equals("stop")) {
+                        } else if (command instanceof RecordReader.Undo) {
+                            if (started) chess.tryUndo();
+                        } else if (command instanceof RecordReader.Stop) {
                             publish("Stop encountered in record.");
                             break;
                         } else {
-                            publish("Ignoring unknown command: " + cmd);
+                            publish("Ignoring unknown command at line " + command.line + ": " + cmd);
                         }
                     } catch (Exception ex) {
-                        publish("Error: " + ex.getMessage());
+                        publish("Error at line " + command.line + ": " + ex.getMessage());
                     }
 
                     // update UI
@@ -508,7 +653,6 @@ public class ChessUI extends JFrame {
                         try { Thread.sleep(800); } catch (InterruptedException ignored) { Thread.currentThread().interrupt(); }
                     }
                 }
-                return null;
             }
 
             @Override
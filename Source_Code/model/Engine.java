@@ -0,0 +1,441 @@
+// Computer player: negamax alpha-beta with iterative deepening, a transposition table and a
+// capture quiescence search.
+// Works on its own copy of the position through make/unmake, so it never prints or touches the game record.
+public class Engine {
+    public static final int INFINITY = 32000;
+    // Score of a won game; shorter wins score higher (WIN - ply)
+    public static final int WIN = 30000;
+    static final int MAX_PLY = 128;
+    static final int DEFAULT_TABLE_MB = 16;
+    static final long DEFAULT_TIME_LIMIT_MILLIS = 1000;
+
+    // Material value per rank (index 1..8)
+    static final int[] RANK_VALUE = {0, 500, 200, 300, 400, 500, 800, 900, 1000};
+
+    private int maxDepth;
+    private long timeLimitMillis;
+    private final TranspositionTable table;
+    // Solved endgames, consulted once few enough pieces are left
+    private java.util.List<Tablebase> tablebases = java.util.Collections.emptyList();
+    // Opening moves from the game records, played without searching
+    private OpeningBook book;
+    private final java.util.SplittableRandom bookRandom = new java.util.SplittableRandom();
+    private boolean bookMove;
+    // Evaluation weights; null keeps whatever tables the root position uses
+    private Evaluation evaluation;
+
+    private Position pos;
+    // Per-ply move and ordering buffers so the search does not allocate
+    private final int[][] moves = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+    private final int[][] order = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+    private long nodes;
+    private long deadline;
+    // Set while pondering: the clock only starts once the predicted move is played
+    private Ponder ponder;
+    private boolean stopped;
+    private int completedDepth;
+    private int bestScore;
+    // Set when this engine is one worker of a ParallelSearch: a stop flag shared by all workers,
+    // a depth offset so helpers do not all search the same iteration, and the table is aged by the owner
+    private java.util.concurrent.atomic.AtomicBoolean sharedStop;
+    private int depthOffset;
+    // stop() marks the search whose id it saw; a stop before the next search starts is not carried over
+    private volatile int searchId;
+    private volatile int stopId = -1;
+    private long started;
+    private Listener listener;
+    private int[] principalVariation = new int[0];
+
+    // Told about every completed iteration, on the searching thread
+    public interface Listener {
+        // score from the point of view of the side to move at the root; pv starts with the best move
+        void onIteration(int depth, int score, long nodes, long millis, int[] pv);
+    }
+
+    // Control for one ponder search, shared between the searching thread and the UI thread
+    public static final class Ponder {
+        final long started = System.nanoTime();
+        volatile boolean hit;
+        volatile boolean stop;
+
+        // The predicted move was played: the time limit now applies, counted from the start of pondering
+        public void hit() {
+            hit = true;
+        }
+
+        // The prediction was wrong or the game moved on: abandon the search
+        public void stop() {
+            stop = true;
+        }
+    }
+
+    public Engine() {
+        this(MAX_PLY - 1, DEFAULT_TIME_LIMIT_MILLIS);
+    }
+
+    // maxDepth in plies; timeLimitMillis <= 0 means no time limit
+    public Engine(int maxDepth, long timeLimitMillis) {
+        this(maxDepth, timeLimitMillis, new TranspositionTable(DEFAULT_TABLE_MB));
+    }
+
+    // Engines sharing a table see each other's results
+    public Engine(int maxDepth, long timeLimitMillis, TranspositionTable table) {
+        this.maxDepth = Math.max(1, Math.min(maxDepth, MAX_PLY - 1));
+        this.timeLimitMillis = timeLimitMillis;
+        this.table = table;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, Math.min(maxDepth, MAX_PLY - 1));
+    }
+
+    public void setTimeLimitMillis(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    public void setTablebases(java.util.List<Tablebase> tablebases) {
+        this.tablebases = tablebases;
+    }
+
+    public void setEvaluation(Evaluation evaluation) {
+        this.evaluation = evaluation;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    // True if the last search returned a book move
+    public boolean isBookMove() {
+        return bookMove;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    // Score of the last search from the point of view of the side to move
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    // Expected line of the last completed iteration, best move first
+    public int[] getPrincipalVariation() {
+        return principalVariation.clone();
+    }
+
+    // Ask the running search, from any thread, to return its best move so far
+    public void stop() {
+        stopId = searchId;
+    }
+
+    // Best move for the current player of chess, or -1 if there is none
+    public int findBestMove(Chess chess) {
+        return search(chess.getPosition());
+    }
+
+    // As findBestMove, with a time limit of millis for this search only
+    public int findBestMove(Chess chess, long millis) {
+        long saved = timeLimitMillis;
+        timeLimitMillis = millis;
+        try {
+            return search(chess.getPosition());
+        } finally {
+            timeLimitMillis = saved;
+        }
+    }
+
+    // Best move for the side to move in root, or -1 if there is none. root is not modified.
+    public int search(Position root) {
+        return search(root, null);
+    }
+
+    // Search root (the position after the predicted reply) on the opponent's time, with no clock
+    // until control.hit(); returns as search() does. Transposition table entries are kept either way.
+    public int ponder(Position root, Ponder control) {
+        return search(root, control);
+    }
+
+    // As ponder, with a time limit of millis once the prediction is hit
+    public int ponder(Position root, Ponder control, long millis) {
+        long saved = timeLimitMillis;
+        timeLimitMillis = millis;
+        try {
+            return search(root, control);
+        } finally {
+            timeLimitMillis = saved;
+        }
+    }
+
+    private int search(Position root, Ponder control) {
+        ponder = control;
+        searchId++;
+        started = control != null ? control.started : System.nanoTime();
+        principalVariation = new int[0];
+        pos = new Position(root);
+        if (evaluation != null) pos.setEvaluation(evaluation);
+        nodes = 0;
+        stopped = false;
+        completedDepth = 0;
+        bestScore = 0;
+        bookMove = false;
+        deadline = timeLimitMillis > 0 && control == null ? System.nanoTime() + timeLimitMillis * 1_000_000L : Long.MAX_VALUE;
+
+        int[] rootMoves = new int[MoveGenerator.MAX_MOVES];
+        int n = MoveGenerator.generateLegalMoves(pos, rootMoves);
+        if (n == 0 || pos.isGameOver()) return -1;
+        int best = rootMoves[0];
+        if (n == 1) return best;
+        Tablebase solved = Tablebase.find(tablebases, pos);
+        if (solved != null) {
+            bestScore = tablebaseScore(solved.probe(pos), 0);
+            return solved.bestMove(pos);
+        }
+        if (book != null) {
+            int move = book.pick(pos, bookRandom);
+            if (move >= 0) {
+                bookMove = true;
+                return move;
+            }
+        }
+        if (sharedStop == null) table.newSearch();
+        long entry = table.probe(pos.key);
+        for (int i = 0; entry != TranspositionTable.MISS && i < n; i++) {
+            if (rootMoves[i] == TranspositionTable.moveOf(entry)) best = rootMoves[i];
+        }
+
+        for (int depth = 1 + depthOffset; depth <= maxDepth; depth++) {
+            int alpha = -INFINITY;
+            int iterationBest = best;
+            // Search the previous best move first
+            for (int i = 0; i < n; i++) {
+                if (rootMoves[i] == best) {
+                    rootMoves[i] = rootMoves[0];
+                    rootMoves[0] = best;
+                    break;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                int delta = pos.make(MoveGenerator.from(rootMoves[i]), MoveGenerator.to(rootMoves[i]));
+                int score = -negamax(depth - 1, 1, -INFINITY, -alpha);
+                pos.unmake(delta);
+                if (stopped) break;
+                if (score > alpha) {
+                    alpha = score;
+                    iterationBest = rootMoves[i];
+                }
+            }
+            if (stopped) {
+                // The previous best was searched first, so a move that finished above it is better
+                if (iterationBest != best) {
+                    best = iterationBest;
+                    bestScore = alpha;
+                }
+                break;
+            }
+            best = iterationBest;
+            bestScore = alpha;
+            completedDepth = depth;
+            table.store(pos.key, depth, TranspositionTable.EXACT, toTable(alpha, 0), best);
+            principalVariation = principalVariation(best);
+            long millis = (System.nanoTime() - started) / 1_000_000L;
+            if (listener != null) listener.onIteration(depth, alpha, nodes, millis, principalVariation.clone());
+            if (alpha >= WIN - MAX_PLY || alpha <= -WIN + MAX_PLY) break; // forced result found
+            // The next iteration takes several times as long as this one: do not start what cannot finish
+            if (timeLimitMillis > 0 && (control == null || control.hit) && millis * 2 > timeLimitMillis) break;
+        }
+        return best;
+    }
+
+    // best followed by the transposition table moves from the root, while they stay legal
+    private int[] principalVariation(int best) {
+        Position line = new Position(pos);
+        int[] pv = new int[MAX_PLY];
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        long[] seen = new long[MAX_PLY];
+        int length = 0;
+        for (int move = best; length < MAX_PLY && !line.isGameOver(); ) {
+            seen[length] = line.key;
+            pv[length++] = move;
+            line.make(MoveGenerator.from(move), MoveGenerator.to(move));
+            long entry = table.probe(line.key);
+            if (entry == TranspositionTable.MISS) break;
+            move = TranspositionTable.moveOf(entry);
+            int n = MoveGenerator.generateLegalMoves(line, legal);
+            boolean found = false;
+            for (int i = 0; i < n && !found; i++) found = legal[i] == move;
+            // Stop at a repetition, which would loop forever
+            for (int i = 0; i < length && found; i++) found = seen[i] != line.key;
+            if (!found) break;
+        }
+        return java.util.Arrays.copyOf(pv, length);
+    }
+
+    private int negamax(int depth, int ply, int alpha, int beta) {
+        if (pos.isGameOver()) return -WIN + ply; // the previous move decided the game
+        if (depth <= 0 || ply >= MAX_PLY - 1) return quiesce(ply, alpha, beta);
+        if ((++nodes & 1023) == 0) checkTime();
+        if (stopped) return 0;
+        if (!tablebases.isEmpty()) {
+            Tablebase solved = Tablebase.find(tablebases, pos);
+            if (solved != null) return tablebaseScore(solved.probe(pos), ply);
+        }
+
+        long key = pos.key;
+        int tableMove = 0;
+        long entry = table.probe(key);
+        if (entry != TranspositionTable.MISS) {
+            tableMove = TranspositionTable.moveOf(entry);
+            if (TranspositionTable.depthOf(entry) >= depth) {
+                int score = fromTable(TranspositionTable.scoreOf(entry), ply);
+                int bound = TranspositionTable.boundOf(entry);
+                if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && score >= beta)
+                        || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        int[] buffer = moves[ply];
+        int n = MoveGenerator.generateLegalMoves(pos, buffer);
+        if (n == 0) return -WIN + ply; // no legal move loses
+        orderMoves(ply, n);
+        // The table move is only trusted if it was generated here (hash collisions)
+        if (tableMove != 0) {
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] == tableMove) {
+                    System.arraycopy(buffer, 0, buffer, 1, i);
+                    buffer[0] = tableMove;
+                    break;
+                }
+            }
+        }
+        int originalAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = 0;
+        for (int i = 0; i < n; i++) {
+            int delta = pos.make(MoveGenerator.from(buffer[i]), MoveGenerator.to(buffer[i]));
+            int score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+            pos.unmake(delta);
+            if (stopped) return 0;
+            if (score > best) {
+                best = score;
+                bestMove = buffer[i];
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) break;
+                }
+            }
+        }
+        int bound = best >= beta ? TranspositionTable.LOWER
+                : best > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(key, depth, bound, toTable(best, ply), bestMove);
+        return best;
+    }
+
+    // Tablebase value at ply as a search score: exact distance to the end of the game
+    static int tablebaseScore(int value, int ply) {
+        if (Tablebase.isWin(value)) return WIN - ply - Tablebase.plies(value);
+        if (Tablebase.isLoss(value)) return -WIN + ply + Tablebase.plies(value);
+        return 0;
+    }
+
+    // Win scores are stored relative to the node, not the root, so they stay valid at any ply
+    static int toTable(int score, int ply) {
+        if (score >= WIN - MAX_PLY) return score + ply;
+        if (score <= -WIN + MAX_PLY) return score - ply;
+        return score;
+    }
+
+    static int fromTable(int score, int ply) {
+        if (score >= WIN - MAX_PLY) return score - ply;
+        if (score <= -WIN + MAX_PLY) return score + ply;
+        return score;
+    }
+
+    // Only captures and den entries are searched past the horizon
+    private int quiesce(int ply, int alpha, int beta) {
+        if (pos.isGameOver()) return -WIN + ply;
+        if ((++nodes & 1023) == 0) checkTime();
+        if (stopped) return 0;
+        int standPat = evaluate(pos);
+        if (standPat >= beta || ply >= MAX_PLY - 1) return standPat;
+        if (standPat > alpha) alpha = standPat;
+
+        int[] buffer = moves[ply];
+        int n = MoveGenerator.generateLegalMoves(pos, buffer);
+        int enemyDen = pos.sideToMove == Position.RED ? Position.BLUE_DEN : Position.RED_DEN;
+        int forcing = 0;
+        for (int i = 0; i < n; i++) {
+            int to = MoveGenerator.to(buffer[i]);
+            if (pos.mailbox[to] != Position.EMPTY || to == enemyDen) buffer[forcing++] = buffer[i];
+        }
+        orderMoves(ply, forcing);
+        for (int i = 0; i < forcing; i++) {
+            int delta = pos.make(MoveGenerator.from(buffer[i]), MoveGenerator.to(buffer[i]));
+            int score = -quiesce(ply + 1, -beta, -alpha);
+            pos.unmake(delta);
+            if (stopped) return 0;
+            if (score > alpha) {
+                alpha = score;
+                if (alpha >= beta) break;
+            }
+        }
+        return alpha;
+    }
+
+    // Sort moves[ply][0..n) by most valuable victim, then least valuable attacker (insertion sort)
+    private void orderMoves(int ply, int n) {
+        int[] buffer = moves[ply];
+        int[] keys = order[ply];
+        for (int i = 0; i < n; i++) {
+            int victim = pos.mailbox[MoveGenerator.to(buffer[i])];
+            int attacker = pos.mailbox[MoveGenerator.from(buffer[i])];
+            keys[i] = victim == Position.EMPTY ? 0 : RANK_VALUE[Position.rankOf(victim)] * 16 - Position.rankOf(attacker);
+        }
+        for (int i = 1; i < n; i++) {
+            int move = buffer[i], key = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] < key) {
+                buffer[j + 1] = buffer[j];
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            buffer[j + 1] = move;
+            keys[j + 1] = key;
+        }
+    }
+
+    void joinParallelSearch(java.util.concurrent.atomic.AtomicBoolean stop, int depthOffset) {
+        this.sharedStop = stop;
+        this.depthOffset = depthOffset;
+    }
+
+    private void checkTime() {
+        long now = System.nanoTime();
+        if (now > deadline || stopId == searchId || (sharedStop != null && sharedStop.get())) stopped = true;
+        if (ponder != null && (ponder.stop
+                || (ponder.hit && timeLimitMillis > 0 && now > ponder.started + timeLimitMillis * 1_000_000L))) {
+            stopped = true;
+        }
+    }
+
+    // Static evaluation from the point of view of the side to move: the piece-square sum the
+    // position keeps up to date (see Evaluation)
+    static int evaluate(Position pos) {
+        return pos.sideToMove == Position.RED ? pos.psq : -pos.psq;
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Evaluation weights compiled into piece-square tables. A Position keeps the sum of its pieces'
+// table entries up to date in put/remove/make/unmake, so evaluating a leaf costs O(1).
+//
+// Terms: material by rank, a bonus per step closer to the enemy den, a penalty for standing on a
+// trap where the piece can be taken by anything (a percentage of its material), and a bonus for a
+// rat in the river, where no land piece can reach it.
+//
+// Weights file: one "name = value" per line, "#" starts a comment. Names are the rank names
+// (rat ... elephant) for material, plus den_step, trap_percent and rat_river. Missing names keep
+// their default.
+public class Evaluation {
+    static final String DEFAULT_FILE = "eval.weights";
+    static final String[] RANK_NAMES = {"", "rat", "cat", "dog", "wolf", "leopard", "tiger", "lion", "elephant"};
+    // Largest Manhattan distance between two squares of the playing area
+    private static final int MAX_DISTANCE = 14;
+
+    public static final Evaluation DEFAULT = new Evaluation();
+
+    final int[] material = {0, 500, 200, 300, 400, 500, 800, 900, 1000};
+    int denStep = 5;
+    int trapPercent = 10;
+    int ratRiver = 20;
+    // table[code][sq]: contribution of that piece on that square, from red's point of view
+    final int[][] table = new int[Position.PIECE_CODES][Position.SQUARES];
+
+    private Evaluation() {
+        build();
+    }
+
+    public static Evaluation load(Path file) throws IOException {
+        Evaluation eval = new Evaluation();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                String[] parts = line.split("\\s*=\\s*");
+                if (parts.length != 2 || !parts[1].matches("-?\\d+")) {
+                    throw new IOException("Bad weight at line " + lineNumber + ": " + line);
+                }
+                eval.set(parts[0].toLowerCase(), Integer.parseInt(parts[1]), lineNumber);
+            }
+        }
+        eval.build();
+        return eval;
+    }
+
+    // Weights from file, or DEFAULT if the file does not exist or cannot be read
+    public static Evaluation loadIfExists(Path file) {
+        if (!Files.exists(file)) return DEFAULT;
+        try {
+            return load(file);
+        } catch (IOException e) {
+            System.err.println("Failed to load evaluation weights: " + e.getMessage());
+            return DEFAULT;
+        }
+    }
+
+    private void set(String name, int value, int lineNumber) throws IOException {
+        for (int rank = 1; rank <= 8; rank++) {
+            if (RANK_NAMES[rank].equals(name)) {
+                material[rank] = value;
+                return;
+            }
+        }
+        switch (name) {
+            case "den_step":
+                denStep = value;
+                break;
+            case "trap_percent":
+                trapPercent = value;
+                break;
+            case "rat_river":
+                ratRiver = value;
+                break;
+            default:
+                throw new IOException("Unknown weight at line " + lineNumber + ": " + name);
+        }
+    }
+
+    private void build() {
+        for (int side = Position.RED; side <= Position.BLUE; side++) {
+            int den = side == Position.RED ? Position.BLUE_DEN : Position.RED_DEN;
+            int sign = side == Position.RED ? 1 : -1;
+            for (int rank = 1; rank <= 8; rank++) {
+                int[] scores = table[Position.code(side, rank)];
+                for (int sq = Position.COLS; sq < Position.SQUARES; sq++) {
+                    int distance = Math.abs(Position.row(sq) - Position.row(den)) + Math.abs(Position.col(sq) - Position.col(den));
+                    int score = material[rank] + (MAX_DISTANCE - distance) * denStep;
+                    if (Position.isTrapFor(sq, side)) score -= material[rank] * trapPercent / 100;
+                    if (rank == Position.RAT && Position.isRiver(sq)) score += ratRiver;
+                    scores[sq] = sign * score;
+                }
+            }
+        }
+    }
+
+    public int materialOf(int rank) {
+        return material[rank];
+    }
+
+    // Table entry of a piece code on a square, from red's point of view
+    public int score(int code, int sq) {
+        return table[code][sq];
+    }
+
+    // Full recompute over the piece list, for checking the incremental sum
+    public int evaluate(Position pos) {
+        int score = 0;
+        for (int code = 1; code < Position.PIECE_CODES; code++) {
+            int sq = pos.pieceSquare[code];
+            if (sq >= 0) score += table[code][sq];
+        }
+        return score;
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+// Hands out the numbers of files such as record/game_log_N.record without listing the directory.
+//
+// A counter file in the directory (".game_log_next" for prefix "game_log_") holds the next number
+// and the directory's modification time when the counter was written. While the directory has not
+// changed since, the counter is trusted; otherwise files were added or removed behind our back and
+// the directory is scanned once to find the highest number again.
+//
+// The counter file is locked while it is used, so JVMs sharing the directory do not hand out the
+// same number, and allocate() claims the file with an atomic create, so an existing file is never
+// reused even if a change was missed.
+//
+// A text record and its binary form (game_log_N.record, game_log_N.brecord) share the number N, so
+// a game kept only as .brecord keeps its number.
+public class FileNumberAllocator {
+    private static final int COUNTER_BYTES = 16; // long next number, long directory mtime in ns
+
+    private FileNumberAllocator() {
+    }
+
+    // Next free number for prefix N suffix in dir, without claiming it; 1 if dir does not exist
+    public static int peek(Path dir, String prefix, String suffix) throws IOException {
+        if (!Files.isDirectory(dir)) return 1;
+        try {
+            return use(dir, prefix, suffix, false);
+        } catch (IOException e) {
+            // e.g. a read-only directory where the counter cannot be created: count the slow way
+            return scan(dir, prefix, suffix) + 1;
+        }
+    }
+
+    // Claim the next number: the file prefix N suffix is created empty in dir and N is returned
+    public static int allocate(Path dir, String prefix, String suffix) throws IOException {
+        Files.createDirectories(dir);
+        return use(dir, prefix, suffix, true);
+    }
+
+    // FileChannel locks are held per JVM, so threads of one JVM are kept apart here
+    private static synchronized int use(Path dir, String prefix, String suffix, boolean claim) throws IOException {
+        Path counter = dir.resolve("." + prefix + "next");
+        try (FileChannel channel = FileChannel.open(counter, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.lock(); // released when the channel closes
+            ByteBuffer data = ByteBuffer.allocate(COUNTER_BYTES);
+            channel.read(data, 0);
+            long next = data.getLong(0);
+            // Read after the counter file exists, since creating it changes the directory
+            long modified = Files.getLastModifiedTime(dir).to(TimeUnit.NANOSECONDS);
+            if (data.hasRemaining() || next < 1 || data.getLong(8) != modified) next = scan(dir, prefix, suffix) + 1;
+            if (claim) {
+                while (true) {
+                    try {
+                        if (!taken(dir, prefix, next, suffix)) {
+                            Files.createFile(dir.resolve(prefix + next + suffix));
+                            break;
+                        }
+                    } catch (FileAlreadyExistsException e) {
+                        // taken in the meantime
+                    }
+                    next++;
+                }
+                modified = Files.getLastModifiedTime(dir).to(TimeUnit.NANOSECONDS);
+            }
+            int number = (int) next;
+            data.clear();
+            data.putLong(claim ? next + 1 : next).putLong(modified).flip();
+            channel.write(data, 0);
+            return number;
+        }
+    }
+
+    // Suffixes of the files that share a number with prefix N suffix, suffix first
+    private static String[] suffixes(String suffix) {
+        if (suffix.equals(BinaryRecord.TEXT_EXTENSION)) return new String[] {suffix, BinaryRecord.EXTENSION};
+        return new String[] {suffix};
+    }
+
+    // Whether a file sharing number n with prefix n suffix already exists in dir
+    private static boolean taken(Path dir, String prefix, long n, String suffix) {
+        for (String other : suffixes(suffix)) {
+            if (Files.exists(dir.resolve(prefix + n + other))) return true;
+        }
+        return false;
+    }
+
+    // Highest N of the files prefix N suffix (or a suffix sharing its numbers) in dir, or 0
+    static int scan(Path dir, String prefix, String suffix) throws IOException {
+        String[] suffixes = suffixes(suffix);
+        int max = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int end = prefix.length();
+                while (end < name.length() && Character.isDigit(name.charAt(end))) end++;
+                String digits = name.substring(prefix.length(), end);
+                if (digits.isEmpty() || !java.util.Arrays.asList(suffixes).contains(name.substring(end))) continue;
+                try {
+                    max = Math.max(max, Integer.parseInt(digits));
+                } catch (NumberFormatException ignore) {
+                }
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Many game records in one append-only file, so a large collection does not need one small file
+// per game. Games are stored in the binary record format (see BinaryRecord) and numbered from 1
+// in the order they were added; game N is found through the index without any search.
+//
+// File: header (magic, long index offset, int game count), the games, then the index: per game
+// long offset, int length, int record number (N of the game_log_N file it came from, 0 if none).
+// Appending writes the new games and a new index after the old end and only then points the header
+// at it, so a crash leaves the previous archive intact. The superseded index stays behind as
+// garbage, which is why games are appended in batches.
+//
+// Reads go through memory-mapped chunks of the file.
+//
+// Usage: java GameArchive pack <recordDir> [archive]
+//        java GameArchive extract [archive] <dir> [id]
+//        java GameArchive list [archive]
+public class GameArchive implements AutoCloseable {
+    // Archive beside the records it was packed from
+    static final String FILE_NAME = "games.jga";
+    static final String DEFAULT_FILE = "record/" + FILE_NAME;
+    // Replay source naming game N of the default archive, e.g. "archive:12"
+    static final String SOURCE_PREFIX = "archive:";
+    private static final int MAGIC = 0x4A474131; // "JGA1"
+    private static final int HEADER_BYTES = 16;
+    private static final int INDEX_ENTRY_BYTES = 16;
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final int count;
+    private final long indexOffset;
+    private final MappedByteBuffer[] chunks;
+
+    private GameArchive(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(head, 0);
+        if (head.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Not a game archive");
+        }
+        indexOffset = head.getLong(4);
+        count = head.getInt(12);
+        long end = indexOffset + (long) count * INDEX_ENTRY_BYTES;
+        if (end > channel.size()) {
+            channel.close();
+            throw new IOException("Game archive is truncated");
+        }
+        chunks = new MappedByteBuffer[(int) ((end + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = i * CHUNK_BYTES;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_BYTES, end - start));
+        }
+    }
+
+    public static GameArchive open(Path file) throws IOException {
+        return new GameArchive(FileChannel.open(file));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Binary record of game id (1..size())
+    public byte[] read(int id) throws IOException {
+        long entry = entry(id);
+        return bytes(readLong(entry), readInt(entry + 8));
+    }
+
+    // Lines of game id, as in its text record
+    public List<String> lines(int id) throws IOException {
+        return BinaryRecord.decode(read(id));
+    }
+
+    // N of the game_log_N file game id was packed from, or 0
+    public int recordNumber(int id) throws IOException {
+        return readInt(entry(id) + 12);
+    }
+
+    private long entry(int id) throws IOException {
+        if (id < 1 || id > count) throw new IOException("No game " + id + " in archive (1.." + count + ")");
+        return indexOffset + (long) (id - 1) * INDEX_ENTRY_BYTES;
+    }
+
+    private long readLong(long at) throws IOException {
+        return ByteBuffer.wrap(bytes(at, 8)).getLong();
+    }
+
+    private int readInt(long at) throws IOException {
+        return ByteBuffer.wrap(bytes(at, 4)).getInt();
+    }
+
+    // length bytes from file offset at, which may span two chunks
+    private byte[] bytes(long at, int length) throws IOException {
+        if (at < HEADER_BYTES || length < 0 || at + length > indexOffset + (long) count * INDEX_ENTRY_BYTES) {
+            throw new IOException("Bad game archive offset " + at);
+        }
+        byte[] out = new byte[length];
+        for (int done = 0; done < length; ) {
+            long position = at + done;
+            ByteBuffer chunk = chunks[(int) (position / CHUNK_BYTES)].duplicate();
+            chunk.position((int) (position % CHUNK_BYTES));
+            int n = Math.min(length - done, chunk.remaining());
+            chunk.get(out, done, n);
+            done += n;
+        }
+        return out;
+    }
+
+    // Add binary records to file, creating it if needed; recordNumbers may be null. Returns the id
+    // of the first added game.
+    public static int append(Path file, List<byte[]> games, List<Integer> recordNumbers) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            channel.lock(); // released when the channel closes
+            ByteBuffer index;
+            long end;
+            int count;
+            if (channel.size() == 0) {
+                index = ByteBuffer.allocate(games.size() * INDEX_ENTRY_BYTES);
+                end = HEADER_BYTES;
+                count = 0;
+            } else {
+                ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+                channel.read(head, 0);
+                if (head.getInt(0) != MAGIC) throw new IOException("Not a game archive: " + file);
+                long indexOffset = head.getLong(4);
+                count = head.getInt(12);
+                index = ByteBuffer.allocate((count + games.size()) * INDEX_ENTRY_BYTES);
+                index.limit(count * INDEX_ENTRY_BYTES);
+                while (index.hasRemaining()) {
+                    if (channel.read(index, indexOffset + index.position()) < 0) throw new IOException("Game archive is truncated: " + file);
+                }
+                index.limit(index.capacity());
+                end = indexOffset + (long) count * INDEX_ENTRY_BYTES;
+            }
+            // Everything after the live index belongs to an append that did not finish
+            long at = end;
+            for (int i = 0; i < games.size(); i++) {
+                byte[] game = games.get(i);
+                write(channel, ByteBuffer.wrap(game), at);
+                index.putLong(at).putInt(game.length).putInt(recordNumbers == null ? 0 : recordNumbers.get(i));
+                at += game.length;
+            }
+            index.flip();
+            write(channel, index, at);
+            channel.truncate(at + index.limit());
+            channel.force(false);
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+            head.putInt(MAGIC).putLong(at).putInt(count + games.size()).flip();
+            write(channel, head, 0);
+            channel.force(false);
+            return count + 1;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer data, long at) throws IOException {
+        while (data.hasRemaining()) at += channel.write(data, at);
+    }
+
+    // Append every game_log_N.record / .brecord in recordDir whose N is not in file yet, in order of
+    // N, so packing a directory again adds only its new games. Where both forms of N exist the text
+    // record is taken, as in replay. Returns the number of games added.
+    public static int pack(Path recordDir, Path file) throws IOException {
+        Set<Integer> packed = new HashSet<>();
+        if (Files.exists(file) && Files.size(file) > 0) {
+            try (GameArchive archive = open(file)) {
+                for (int id = 1; id <= archive.size(); id++) packed.add(archive.recordNumber(id));
+            }
+        }
+        TreeMap<Integer, Path> records = new TreeMap<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(recordDir, "game_log_*")) {
+            for (Path record : dir) {
+                int number = recordNumber(record);
+                if (number == 0 || packed.contains(number)) continue;
+                if (!records.containsKey(number) || record.toString().endsWith(BinaryRecord.TEXT_EXTENSION)) records.put(number, record);
+            }
+        }
+        List<byte[]> games = new ArrayList<>();
+        List<Integer> numbers = new ArrayList<>();
+        for (Map.Entry<Integer, Path> record : records.entrySet()) {
+            byte[] data = Files.readAllBytes(record.getValue());
+            games.add(BinaryRecord.isBinary(data) ? data : BinaryRecord.encodeText(data));
+            numbers.add(record.getKey());
+        }
+        if (!games.isEmpty()) append(file, games, numbers);
+        return games.size();
+    }
+
+    // N of game_log_N.record or game_log_N.brecord, or 0
+    static int recordNumber(Path file) {
+        String name = file.getFileName().toString();
+        String digits = name.replaceFirst("^game_log_(\\d{1,9})(\\.record|\\.brecord)$", "$1");
+        return digits.equals(name) ? 0 : Integer.parseInt(digits);
+    }
+
+    // Write game id (or every game if id is 0) to dir as game_log_N.record, N being the record
+    // number it was packed from, or its archive id. Existing files are never overwritten: a game whose
+    // file is already there fails the extract. Returns the number of files written.
+    public static int extract(Path file, Path dir, int id) throws IOException {
+        Files.createDirectories(dir);
+        try (GameArchive archive = open(file)) {
+            int first = id > 0 ? id : 1, last = id > 0 ? id : archive.size();
+            for (int game = first; game <= last; game++) {
+                int number = archive.recordNumber(game);
+                Path target = dir.resolve("game_log_" + (number > 0 ? number : game) + BinaryRecord.TEXT_EXTENSION);
+                Files.write(target, BinaryRecord.decodeText(archive.read(game)), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+            }
+            return last - first + 1;
+        }
+    }
+
+    // Reader for the replay source "archive:N" from the default archive
+    static RecordReader openSource(String source) throws IOException {
+        String id = source.substring(SOURCE_PREFIX.length()).trim();
+        if (!id.matches("\\d{1,9}")) throw new IOException("Invalid archive game id: " + id);
+        try (GameArchive archive = open(Paths.get(DEFAULT_FILE))) {
+            return RecordReader.of(archive.read(Integer.parseInt(id)));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String command = args.length > 0 ? args[0] : "";
+        if (command.equals("pack") && args.length >= 2) {
+            Path file = Paths.get(args.length > 2 ? args[2] : DEFAULT_FILE);
+            long start = System.nanoTime();
+            int games = pack(Paths.get(args[1]), file);
+            System.out.printf("%s: packed %d games, %d bytes, %.2f s%n", file, games, Files.size(file), (System.nanoTime() - start) / 1e9);
+        } else if (command.equals("extract") && args.length >= 2) {
+            // extract <dir> | extract <archive> <dir> [id]
+            Path file = Paths.get(args.length > 2 ? args[1] : DEFAULT_FILE);
+            Path dir = Paths.get(args.length > 2 ? args[2] : args[1]);
+            int id = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            System.out.println("Extracted " + extract(file, dir, id) + " games to " + dir);
+        } else if (command.equals("list")) {
+            try (GameArchive archive = open(Paths.get(args.length > 1 ? args[1] : DEFAULT_FILE))) {
+                for (int id = 1; id <= archive.size(); id++) {
+                    List<String> lines = archive.lines(id);
+                    System.out.println(SOURCE_PREFIX + id + "  game_log_" + archive.recordNumber(id) + "  "
+                            + (lines.isEmpty() ? "" : lines.get(0)) + "  (" + lines.size() + " lines)");
+                }
+            }
+        } else {
+            System.out.println("Usage: java GameArchive pack <recordDir> [archive] | extract [archive] <dir> [id] | list [archive]");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Game record writer that keeps the file open and writes on a background thread, so logging a
+// move costs the game thread only a queue append.
+//
+// Lines are written in batches: once BATCH_LINES are waiting, or FLUSH_MILLIS after the first
+// waiting line. flush() writes everything queued before returning; close() flushes and closes
+// the file. One daemon thread serves every open writer, and writers still open at exit are flushed.
+public class GameLogWriter implements AutoCloseable {
+    static final int BATCH_LINES = 64;
+    static final long FLUSH_MILLIS = 200;
+    // Lines that could not be written to their record go here, with a timestamp
+    static final String FALLBACK_FILE = "game_log.record";
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "game-log-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<GameLogWriter> OPEN = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (GameLogWriter writer : OPEN) writer.close();
+        }, "game-log-shutdown"));
+    }
+
+    private final Path file;
+    private final BufferedWriter out;
+    // pending, scheduled and closed are guarded by queueLock
+    private final Object queueLock = new Object();
+    private List<String> pending = new ArrayList<>();
+    private boolean scheduled;
+    private boolean closed;
+    // Held while writing, so batches reach the file in the order they were queued
+    private final Object writeLock = new Object();
+
+    // Create (or truncate) file and keep it open
+    public GameLogWriter(Path file) throws IOException {
+        this.file = file;
+        this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        OPEN.add(this);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Queue one line; it reaches the file within FLUSH_MILLIS
+    public void log(String line) throws IOException {
+        boolean full;
+        synchronized (queueLock) {
+            if (closed) throw new IOException("Game log is closed: " + file);
+            pending.add(line);
+            full = pending.size() >= BATCH_LINES;
+            if (!full && scheduled) return;
+            scheduled = true;
+        }
+        if (full) FLUSHER.execute(this::drain);
+        else FLUSHER.schedule(this::drain, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Write every queued line to the file before returning
+    public void flush() {
+        drain();
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            synchronized (queueLock) {
+                if (closed) return;
+                closed = true;
+            }
+            write(take());
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close game log (" + file + "): " + e.getMessage());
+            }
+            OPEN.remove(this);
+        }
+    }
+
+    private void drain() {
+        synchronized (writeLock) {
+            synchronized (queueLock) {
+                if (closed) return; // close() wrote the rest
+            }
+            write(take());
+        }
+    }
+
+    private List<String> take() {
+        synchronized (queueLock) {
+            List<String> lines = pending;
+            pending = new ArrayList<>();
+            scheduled = false;
+            return lines;
+        }
+    }
+
+    // Caller holds writeLock
+    private void write(List<String> lines) {
+        if (lines.isEmpty()) return;
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.write(System.lineSeparator());
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to write to log (" + file + "): " + e.getMessage());
+            try (FileWriter fw = new FileWriter(FALLBACK_FILE, true)) {
+                for (String line : lines) fw.write(java.time.LocalDateTime.now() + ": " + line + System.lineSeparator());
+            } catch (IOException ex) {
+                System.err.println("Also failed to write to fallback " + FALLBACK_FILE + ": " + ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Computer player using Monte Carlo tree search (UCT). Playouts run on Position through the
+// silent MoveGenerator rules, the same rules Chess.movePiece checks, with no logging or printing.
+//
+// Tree-parallel: all threads share one tree. A thread walking down a node adds a virtual loss to
+// it so that other threads prefer different branches until the playout result is backed up.
+//
+// Usage: java MctsEngine [ms] [maxThreads] [saveId]
+//   prints playouts/s for 1, 2, 4 ... maxThreads
+public class MctsEngine {
+    // Playouts longer than this are scored by the static evaluation
+    static final int MAX_PLAYOUT_PLIES = 200;
+    // Each virtual loss counts as one lost visit
+    static final int VIRTUAL_LOSS = 1;
+
+    private double exploration;
+    private long timeLimitMillis;
+    private long maxPlayouts;
+    private int threads;
+    private long playouts;
+
+    // A tree node: statistics are for the player who made move (the side to move at parent)
+    private static final class Node {
+        final int move;
+        final Node parent;
+        Node[] children;
+        int visits;
+        int virtualLoss;
+        double wins;
+
+        Node(int move, Node parent) {
+            this.move = move;
+            this.parent = parent;
+        }
+    }
+
+    public MctsEngine() {
+        this(Math.sqrt(2), 1000, 0, 1);
+    }
+
+    // maxPlayouts <= 0 means only the time limit applies; timeLimitMillis <= 0 means only maxPlayouts
+    public MctsEngine(double exploration, long timeLimitMillis, long maxPlayouts, int threads) {
+        this.exploration = exploration;
+        this.timeLimitMillis = timeLimitMillis;
+        this.maxPlayouts = maxPlayouts;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setExploration(double exploration) {
+        this.exploration = exploration;
+    }
+
+    public void setTimeLimitMillis(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    // Playouts run by all threads in the last search
+    public long getPlayouts() {
+        return playouts;
+    }
+
+    public int findBestMove(Chess chess) {
+        return search(chess.getPosition());
+    }
+
+    // Most visited move for the side to move in root, or -1 if there is none. root is not modified.
+    public int search(Position root) {
+        int[] rootMoves = new int[MoveGenerator.MAX_MOVES];
+        int n = MoveGenerator.generateLegalMoves(root, rootMoves);
+        playouts = 0;
+        if (n == 0 || root.isGameOver()) return -1;
+        if (n == 1) return rootMoves[0];
+        if (timeLimitMillis <= 0 && maxPlayouts <= 0) throw new IllegalStateException("MCTS needs a time or playout limit");
+
+        Node tree = new Node(-1, null);
+        long deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1_000_000L : Long.MAX_VALUE;
+        long limit = maxPlayouts > 0 ? maxPlayouts : Long.MAX_VALUE;
+        AtomicLong started = new AtomicLong();
+        AtomicLong finished = new AtomicLong();
+        Thread[] workers = new Thread[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            long seed = i + 1;
+            workers[i] = new Thread(() -> run(root, tree, deadline, limit, started, finished, seed), "mcts-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        run(root, tree, deadline, limit, started, finished, 0);
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        playouts = finished.get();
+
+        if (tree.children == null) return rootMoves[0]; // no playout finished in time
+        Node best = null;
+        for (Node child : tree.children) {
+            if (best == null || child.visits > best.visits) best = child;
+        }
+        return best.move;
+    }
+
+    private void run(Position root, Node tree, long deadline, long limit,
+                     AtomicLong started, AtomicLong finished, long seed) {
+        Position pos = new Position(root);
+        SplittableRandom random = new SplittableRandom(root.getKey() ^ seed * 0x9E3779B97F4A7C15L);
+        int[] buffer = new int[MoveGenerator.MAX_MOVES];
+        int[] path = new int[MAX_PLAYOUT_PLIES + Engine.MAX_PLY];
+        int rootSide = root.getSideToMove();
+        while (started.getAndIncrement() < limit && System.nanoTime() < deadline) {
+            int plies = 0;
+            Node node = tree;
+            // Selection, adding a virtual loss to every node on the way down. A node Engine.MAX_PLY
+            // deep is a leaf that is never expanded, which keeps the selected line within path.
+            while (plies < Engine.MAX_PLY) {
+                Node next;
+                synchronized (node) {
+                    if (node.children == null) break;
+                    next = select(node);
+                    synchronized (next) {
+                        next.virtualLoss += VIRTUAL_LOSS;
+                    }
+                }
+                node = next;
+                path[plies++] = pos.make(MoveGenerator.from(node.move), MoveGenerator.to(node.move));
+                if (pos.isGameOver()) break;
+            }
+            // Expansion of one leaf, then a random playout from it
+            if (!pos.isGameOver() && plies < Engine.MAX_PLY) {
+                synchronized (node) {
+                    if (node.children == null) {
+                        int count = MoveGenerator.generateLegalMoves(pos, buffer);
+                        Node[] children = new Node[count];
+                        for (int i = 0; i < count; i++) children[i] = new Node(buffer[i], node);
+                        node.children = children;
+                    }
+                }
+            }
+            double result = playout(pos, rootSide, random, buffer, path, plies);
+            // Backup: result is from the root side's point of view, and nodes at odd depth
+            // hold moves made by the root side
+            boolean byRootSide = (plies & 1) == 1;
+            for (Node up = node; up != null; up = up.parent, byRootSide = !byRootSide) {
+                synchronized (up) {
+                    up.visits++;
+                    if (up != tree) up.virtualLoss -= VIRTUAL_LOSS;
+                    up.wins += byRootSide ? result : 1 - result;
+                }
+            }
+            finished.incrementAndGet();
+            while (plies > 0) pos.unmake(path[--plies]);
+        }
+    }
+
+    // UCT over visits including virtual losses; unvisited children first. Caller holds the node lock.
+    private Node select(Node node) {
+        Node best = null;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        double logParent = Math.log(Math.max(1, node.visits + node.virtualLoss));
+        for (Node child : node.children) {
+            int n;
+            double wins;
+            synchronized (child) {
+                n = child.visits + child.virtualLoss;
+                wins = child.wins;
+            }
+            if (n == 0) return child;
+            double value = wins / n + exploration * Math.sqrt(logParent / n);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    // Random moves to the end of the game or the ply limit: 1 root side wins, 0 loses, 0.5 unresolved.
+    // A move that enters the enemy den or takes the last enemy piece is always played.
+    private static double playout(Position pos, int rootSide, SplittableRandom random, int[] buffer, int[] path, int plies) {
+        int start = plies;
+        while (!pos.isGameOver() && plies - start < MAX_PLAYOUT_PLIES) {
+            int n = MoveGenerator.generateLegalMoves(pos, buffer);
+            if (n == 0) break;
+            int side = pos.getSideToMove();
+            int enemyDen = side == Position.RED ? Position.BLUE_DEN : Position.RED_DEN;
+            int choice = buffer[random.nextInt(n)];
+            for (int i = 0; i < n; i++) {
+                int to = MoveGenerator.to(buffer[i]);
+                if (to == enemyDen || (pos.mailbox[to] != Position.EMPTY && pos.count(1 - side) == 1)) {
+                    choice = buffer[i];
+                    break;
+                }
+            }
+            path[plies++] = pos.make(MoveGenerator.from(choice), MoveGenerator.to(choice));
+        }
+        double result;
+        if (pos.isGameOver() || MoveGenerator.generateLegalMoves(pos, buffer) == 0) {
+            // The side to move has lost
+            result = pos.getSideToMove() == rootSide ? 0 : 1;
+        } else {
+            int score = Engine.evaluate(pos);
+            if (pos.getSideToMove() != rootSide) score = -score;
+            result = score > 0 ? 1 : score < 0 ? 0 : 0.5;
+        }
+        while (plies > start) pos.unmake(path[--plies]);
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Chess chess = new Chess();
+        chess.GameSetUp(true);
+        if (args.length > 2 && !chess.loadGameFromJungle(args[2])) return;
+
+        System.out.println("threads  playouts      playouts/s    move");
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1) {
+            MctsEngine mcts = new MctsEngine(Math.sqrt(2), millis, 0, threads);
+            long start = System.nanoTime();
+            int move = mcts.findBestMove(chess);
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            System.out.printf("%-8d %-13d %-13.0f %s%n", threads, mcts.getPlayouts(), mcts.getPlayouts() / seconds,
+                    move < 0 ? "none" : Perft.moveName(move));
+        }
+    }
+}
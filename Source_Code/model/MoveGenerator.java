@@ -0,0 +1,124 @@
+// Bulk legal move generation on a Position, without allocation or console output.
+// A move is encoded as an int: bits 0-6 from square, bits 7-13 to square (see Position.square).
+public final class MoveGenerator {
+    // Upper bound on the number of moves in one position (8 pieces, 4 directions each)
+    public static final int MAX_MOVES = 32;
+
+    // Direction order: north, south, west, east.
+    // NEIGHBOUR[sq][dir] = adjacent square, or -1 if off the board or in the action row
+    private static final int[][] NEIGHBOUR = new int[Position.SQUARES][4];
+
+    static {
+        for (int sq = 0; sq < Position.SQUARES; sq++) {
+            int r = Position.row(sq), c = Position.col(sq);
+            NEIGHBOUR[sq][0] = r > 1 ? sq - Position.COLS : -1;
+            NEIGHBOUR[sq][1] = r < Position.ROWS - 1 ? sq + Position.COLS : -1;
+            NEIGHBOUR[sq][2] = c > 0 ? sq - 1 : -1;
+            NEIGHBOUR[sq][3] = c < Position.COLS - 1 ? sq + 1 : -1;
+        }
+    }
+
+    private MoveGenerator() {
+    }
+
+    public static int move(int from, int to) {
+        return from | to << 7;
+    }
+
+    public static int from(int move) {
+        return move & 0x7F;
+    }
+
+    public static int to(int move) {
+        return move >>> 7 & 0x7F;
+    }
+
+    // Write every legal move for the side to move into buffer and return how many were written
+    public static int generateLegalMoves(Position pos, int[] buffer) {
+        int side = pos.sideToMove;
+        int n = 0;
+        // Walk the piece list: at most 8 pieces instead of the whole board
+        int ranks = pos.rankMask[side];
+        while (ranks != 0) {
+            int rank = Integer.numberOfTrailingZeros(ranks);
+            ranks &= ranks - 1;
+            n = generateFrom(pos, pos.pieceSquare[Position.code(side, rank)], buffer, n);
+        }
+        return n;
+    }
+
+    private static int generateFrom(Position pos, int from, int[] buffer, int n) {
+        int piece = pos.mailbox[from];
+        int rank = Position.rankOf(piece);
+        boolean fromRiver = Position.isRiver(from);
+        boolean isJumper = rank == Position.TIGER || rank == Position.LION;
+        for (int dir = 0; dir < 4; dir++) {
+            int to = NEIGHBOUR[from][dir];
+            if (to < 0) continue;
+            int jump = isJumper ? Position.jumpTarget(from, dir) : -1;
+            if (jump >= 0) {
+                // Jump across the river unless a rat is in the way
+                if (pos.jumpBlocked(from, dir)) continue;
+                to = jump;
+            } else if ((fromRiver || Position.isRiver(to)) && rank != Position.RAT) {
+                continue;
+            }
+            int target = pos.mailbox[to];
+            if (target != Position.EMPTY) {
+                if (Position.sideOf(target) == pos.sideToMove) continue;
+                if (!canCapture(piece, target, from, to)) continue;
+            }
+            buffer[n++] = from | to << 7;
+        }
+        return n;
+    }
+
+    // Full rule check of one move for the side to move, in the order the rules have always been
+    // reported to players. Returns MoveResult.OK if the move is legal.
+    public static MoveResult validate(Position pos, int from, int to) {
+        if (Position.row(to) == 0) return MoveResult.ACTION_ROW;
+
+        int moving = pos.mailbox[from];
+        int target = pos.mailbox[to];
+        int rank = moving != Position.EMPTY ? Position.rankOf(moving) : -1;
+        // Tiger and lion can jump across the river if no rat blocks the way
+        boolean isJump = false;
+        if (rank == Position.TIGER || rank == Position.LION) {
+            int dir = Position.direction(from, to);
+            if (dir >= 0 && Position.jumpTarget(from, dir) == to) {
+                if (pos.jumpBlocked(from, dir)) return MoveResult.RAT_BLOCKS_JUMP;
+                isJump = true;
+            }
+        }
+        if (!isJump) {
+            int dRow = Math.abs(Position.row(to) - Position.row(from));
+            int dCol = Math.abs(Position.col(to) - Position.col(from));
+            if (dRow + dCol != 1) return MoveResult.NOT_ONE_STEP;
+            // Only the rat can move into or out of the river
+            if ((Position.isRiver(from) || Position.isRiver(to)) && rank != Position.RAT) return MoveResult.ONLY_RAT_IN_WATER;
+        }
+        if (moving == Position.EMPTY) return MoveResult.NO_PIECE;
+        if (Position.sideOf(moving) != pos.sideToMove) return MoveResult.NOT_OWN_PIECE;
+        if (target == Position.EMPTY) return MoveResult.OK;
+        if (Position.sideOf(target) == pos.sideToMove) return MoveResult.OWN_PIECE_AT_TARGET;
+        return captureResult(moving, target, from, to);
+    }
+
+    public static boolean canCapture(int attacker, int defender, int from, int to) {
+        return captureResult(attacker, defender, from, to) == MoveResult.OK;
+    }
+
+    // Capture rules: traps, rat vs elephant, rat across water, then rank
+    public static MoveResult captureResult(int attacker, int defender, int from, int to) {
+        if (Position.isTrapFor(to, Position.sideOf(defender))) return MoveResult.OK;
+        int attackerRank = Position.rankOf(attacker);
+        int defenderRank = Position.rankOf(defender);
+        boolean sameTerrain = Position.isRiver(from) == Position.isRiver(to);
+        if (attackerRank == Position.RAT && defenderRank == Position.ELEPHANT) {
+            return sameTerrain ? MoveResult.OK : MoveResult.RAT_IN_WATER_VS_ELEPHANT;
+        }
+        if (attackerRank == Position.ELEPHANT && defenderRank == Position.RAT) return MoveResult.ELEPHANT_VS_RAT;
+        if ((attackerRank == Position.RAT || defenderRank == Position.RAT) && !sameTerrain) return MoveResult.RAT_ACROSS_TERRAIN;
+        return attackerRank >= defenderRank ? MoveResult.OK : MoveResult.RANK_TOO_LOW;
+    }
+}
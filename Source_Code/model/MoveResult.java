@@ -0,0 +1,32 @@
+// Outcome of a move or undo request. The rule path returns these without printing;
+// message is the text shown when a human is watching.
+public enum MoveResult {
+    OK(null),
+    ACTION_ROW("Cannot move into action row."),
+    RAT_BLOCKS_JUMP("Cannot jump: rat blocks the river."),
+    NOT_ONE_STEP("Pieces can only move vertically or horizontally by one square, except tiger/lion can jump river."),
+    ONLY_RAT_IN_WATER("Only the rat can move into or out of water."),
+    NO_PIECE("No piece at the source position."),
+    NOT_OWN_PIECE("You can only move your own pieces."),
+    OWN_PIECE_AT_TARGET("Cannot move to a cell occupied by your own piece."),
+    // Capture refusals
+    RAT_IN_WATER_VS_ELEPHANT("Rat can only capture elephant if rat is on land."),
+    ELEPHANT_VS_RAT("Elephant cannot capture rat."),
+    RAT_ACROSS_TERRAIN("Rat can only capture if both pieces are in the river or both are on land."),
+    RANK_TOO_LOW("Cannot capture: your piece's rank is too low or not allowed by special rules."),
+    // Undo/redo refusals
+    NOTHING_TO_UNDO("No moves to undo."),
+    NO_UNDOS_REMAINING("No undos remaining."),
+    NOTHING_TO_REDO("No moves to redo.");
+
+    public final String message;
+
+    MoveResult(String message) {
+        this.message = message;
+    }
+
+    // True for the special capture rules, which are reported before the generic RANK_TOO_LOW message
+    public boolean isCaptureRule() {
+        return this == RAT_IN_WATER_VS_ELEPHANT || this == ELEPHANT_VS_RAT || this == RAT_ACROSS_TERRAIN;
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+// Opening book compiled from the game records in record/, text or binary (see BinaryRecord), and
+// the games packed into record/games.jga (see GameArchive). Every game is replayed (undos included)
+// and, for its first plies, the move played in each position is counted together with the result.
+//
+// Book file: magic, entry count, then 16-byte entries sorted by (position key, move):
+// long key, short move, then unsigned shorts games, red wins, blue wins (saturating at 65535).
+// Lookups binary-search the memory-mapped file.
+//
+// Usage: java OpeningBook [recordDir] [maxPly] [bookFile]
+public class OpeningBook {
+    static final String DEFAULT_FILE = "opening.jbk";
+    static final int DEFAULT_MAX_PLY = 16;
+    private static final int MAGIC = 0x4A424B31; // "JBK1"
+    private static final int HEADER_BYTES = 8;
+    private static final int ENTRY_BYTES = 16;
+
+    // One book move: how often it was played and how those games ended
+    public static final class BookMove {
+        public final int move;
+        public final int games;
+        public final int redWins;
+        public final int blueWins;
+
+        BookMove(int move, int games, int redWins, int blueWins) {
+            this.move = move;
+            this.games = games;
+            this.redWins = redWins;
+            this.blueWins = blueWins;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer entries;
+    private final int count;
+
+    private OpeningBook(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(head, 0);
+        if (head.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Not an opening book file");
+        }
+        count = head.getInt(4);
+        entries = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, (long) count * ENTRY_BYTES);
+    }
+
+    public static OpeningBook open(Path file) throws IOException {
+        return new OpeningBook(FileChannel.open(file));
+    }
+
+    // The book at file, or null if there is none or it cannot be read
+    public static OpeningBook openIfExists(Path file) {
+        if (!Files.exists(file)) return null;
+        try {
+            return open(file);
+        } catch (IOException e) {
+            System.err.println("Failed to open opening book: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Book moves for pos, most played first; empty if pos is not in the book
+    public List<BookMove> lookup(Position pos) {
+        long key = pos.getKey();
+        // Lower bound: first entry with a key >= key
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(entries.getLong(mid * ENTRY_BYTES), key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        List<BookMove> moves = new ArrayList<>();
+        for (int i = lo; i < count && entries.getLong(i * ENTRY_BYTES) == key; i++) {
+            int at = i * ENTRY_BYTES;
+            moves.add(new BookMove(entries.getShort(at + 8) & 0x3FFF, entries.getShort(at + 10) & 0xFFFF,
+                    entries.getShort(at + 12) & 0xFFFF, entries.getShort(at + 14) & 0xFFFF));
+        }
+        moves.sort((a, b) -> b.games - a.games);
+        return moves;
+    }
+
+    // A legal book move for pos chosen in proportion to how often it was played, or -1.
+    // Moves whose games were lost more often than won by the side playing them are skipped.
+    public int pick(Position pos, SplittableRandom random) {
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        int n = MoveGenerator.generateLegalMoves(pos, legal);
+        List<BookMove> candidates = new ArrayList<>();
+        int total = 0;
+        for (BookMove bookMove : lookup(pos)) {
+            int won = pos.getSideToMove() == Position.RED ? bookMove.redWins : bookMove.blueWins;
+            int lost = pos.getSideToMove() == Position.RED ? bookMove.blueWins : bookMove.redWins;
+            if (lost > won) continue;
+            // The key could collide with another position, so only legal moves are trusted
+            for (int i = 0; i < n; i++) {
+                if (legal[i] == bookMove.move) {
+                    candidates.add(bookMove);
+                    total += bookMove.games;
+                    break;
+                }
+            }
+        }
+        if (total == 0) return -1;
+        int r = random.nextInt(total);
+        for (BookMove bookMove : candidates) {
+            r -= bookMove.games;
+            if (r < 0) return bookMove.move;
+        }
+        return -1;
+    }
+
+    // Replay every *.record file in recordDir, every *.brecord with no text record beside it and
+    // every game of the archive recordDir/games.jga whose game_log_N was not among those files, and
+    // write the book for the first maxPly plies. Returns the number of games read.
+    public static int build(Path recordDir, int maxPly, Path bookFile) throws IOException {
+        Chess setup = new Chess();
+        setup.GameSetUp(true);
+        Position start = setup.getPosition();
+        // key -> move -> {games, red wins, blue wins}
+        Map<Long, Map<Integer, int[]>> stats = new HashMap<>();
+        int games = 0;
+        // N of the game_log_N files read, so a game also packed into the archive counts once
+        Set<Integer> numbers = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(recordDir, "*{" + BinaryRecord.TEXT_EXTENSION + "," + BinaryRecord.EXTENSION + "}")) {
+            for (Path file : files) {
+                // A game kept in both forms is read once, from the file replay would use
+                String name = file.getFileName().toString();
+                if (!BinaryRecord.locate(recordDir, name.substring(0, name.lastIndexOf('.'))).equals(file)) continue;
+                try (RecordReader reader = RecordReader.open(file)) {
+                    if (replay(reader, new Position(start), maxPly, stats)) games++;
+                }
+                numbers.add(GameArchive.recordNumber(file));
+            }
+        }
+        Path archiveFile = recordDir.resolve(GameArchive.FILE_NAME);
+        if (Files.exists(archiveFile)) {
+            try (GameArchive archive = GameArchive.open(archiveFile)) {
+                for (int id = 1; id <= archive.size(); id++) {
+                    int number = archive.recordNumber(id);
+                    if (number > 0 && !numbers.add(number)) continue;
+                    try (RecordReader reader = RecordReader.of(archive.read(id))) {
+                        if (replay(reader, new Position(start), maxPly, stats)) games++;
+                    }
+                }
+            }
+        }
+
+        List<long[]> rows = new ArrayList<>();
+        for (Map.Entry<Long, Map<Integer, int[]>> position : stats.entrySet()) {
+            for (Map.Entry<Integer, int[]> move : position.getValue().entrySet()) {
+                int[] s = move.getValue();
+                rows.add(new long[] {position.getKey(), move.getKey(), s[0], s[1], s[2]});
+            }
+        }
+        rows.sort((a, b) -> a[0] != b[0] ? Long.compareUnsigned(a[0], b[0]) : Long.compare(a[1], b[1]));
+        if (bookFile.getParent() != null) Files.createDirectories(bookFile.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(bookFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(rows.size());
+            for (long[] row : rows) {
+                out.writeLong(row[0]);
+                out.writeShort((int) row[1]);
+                out.writeShort((int) Math.min(row[2], 0xFFFF));
+                out.writeShort((int) Math.min(row[3], 0xFFFF));
+                out.writeShort((int) Math.min(row[4], 0xFFFF));
+            }
+        }
+        return games;
+    }
+
+    // One game: the surviving line after undos is counted with the game's result.
+    // A record with an illegal move is counted up to that move.
+    private static boolean replay(RecordReader reader, Position pos, int maxPly, Map<Long, Map<Integer, int[]>> stats) throws IOException {
+        long[] keys = new long[maxPly];
+        int[] moves = new int[maxPly];
+        int[] deltas = new int[1024];
+        int ply = 0;
+        boolean started = false;
+        int winner = -1;
+        for (RecordReader.Command command = reader.next(); command != null; command = reader.next()) {
+            if (command instanceof RecordReader.Start) {
+                started = true;
+            } else if (!started) {
+                continue;
+            } else if (command instanceof RecordReader.Move) {
+                int move = parseMove((RecordReader.Move) command);
+                if (move < 0 || ply == deltas.length) break;
+                int from = MoveGenerator.from(move), to = MoveGenerator.to(move);
+                if (MoveGenerator.validate(pos, from, to) != MoveResult.OK) break;
+                if (ply < maxPly) {
+                    keys[ply] = pos.getKey();
+                    moves[ply] = move;
+                }
+                deltas[ply++] = pos.make(from, to);
+            } else if (command instanceof RecordReader.Undo) {
+                if (ply > 0) pos.unmake(deltas[--ply]);
+            } else if (command.text.contains("(Red) wins")) {
+                winner = Position.RED;
+            } else if (command.text.contains("(Blue) wins")) {
+                winner = Position.BLUE;
+            }
+        }
+        if (!started) return false;
+        for (int i = 0; i < Math.min(ply, maxPly); i++) {
+            int[] s = stats.computeIfAbsent(keys[i], k -> new HashMap<>()).computeIfAbsent(moves[i], m -> new int[3]);
+            s[0]++;
+            if (winner == Position.RED) s[1]++;
+            if (winner == Position.BLUE) s[2]++;
+        }
+        return true;
+    }
+
+    // "move C7 D7" -> move, or -1
+    private static int parseMove(RecordReader.Move command) {
+        if (!command.wellFormed) return -1;
+        int fromCol = command.fromCol, fromRow = command.fromRow;
+        int toCol = command.toCol, toRow = command.toRow;
+        if (fromCol < 0 || fromCol >= Position.COLS || toCol < 0 || toCol >= Position.COLS) return -1;
+        if (fromRow < 0 || fromRow >= Position.ROWS || toRow < 0 || toRow >= Position.ROWS) return -1;
+        return MoveGenerator.move(Position.square(fromRow, fromCol), Position.square(toRow, toCol));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path recordDir = Paths.get(args.length > 0 ? args[0] : "record");
+        int maxPly = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_PLY;
+        Path bookFile = Paths.get(args.length > 2 ? args[2] : DEFAULT_FILE);
+        long start = System.nanoTime();
+        int games = build(recordDir, maxPly, bookFile);
+        OpeningBook book = open(bookFile);
+        System.out.printf("%s: %d games, %d book entries, %.2f s%n", bookFile, games, book.size(), (System.nanoTime() - start) / 1e9);
+        book.close();
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Lazy SMP: N engines search the same root at once and share one transposition table.
+// Each worker owns its own Position copy; half of the helpers start one ply deeper so the
+// threads spread over different iterations. The deepest finished result wins.
+//
+// Usage: java ParallelSearch <depth> [maxThreads] [tableMB] [saveId]
+//   prints a scaling table (threads, nodes, nodes/s, time to depth) for 1, 2, 4 ... maxThreads
+public class ParallelSearch {
+    private final Engine[] engines;
+    private final TranspositionTable table;
+    private final AtomicBoolean stop = new AtomicBoolean();
+    private long nodes;
+    private int completedDepth;
+    private int bestScore;
+
+    public ParallelSearch(int threads, int maxDepth, long timeLimitMillis, long tableMegabytes) {
+        table = new TranspositionTable(tableMegabytes);
+        engines = new Engine[Math.max(1, threads)];
+        for (int i = 0; i < engines.length; i++) {
+            engines[i] = new Engine(maxDepth, timeLimitMillis, table);
+            engines[i].joinParallelSearch(stop, i == 0 ? 0 : i & 1);
+        }
+    }
+
+    public int getThreads() {
+        return engines.length;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    // Nodes searched by all workers in the last search
+    public long getNodes() {
+        return nodes;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    public int findBestMove(Chess chess) {
+        return search(chess.getPosition());
+    }
+
+    // Best move for the side to move in root, or -1 if there is none. root is not modified.
+    public int search(Position root) {
+        stop.set(false);
+        table.newSearch();
+        int[] results = new int[engines.length];
+        Thread[] helpers = new Thread[engines.length - 1];
+        for (int i = 1; i < engines.length; i++) {
+            final int id = i;
+            helpers[i - 1] = new Thread(() -> results[id] = engines[id].search(root), "search-" + i);
+            helpers[i - 1].setDaemon(true);
+            helpers[i - 1].start();
+        }
+        // The calling thread is worker 0; when it finishes, the helpers are told to stop
+        results[0] = engines[0].search(root);
+        stop.set(true);
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int best = 0;
+        nodes = 0;
+        for (int i = 0; i < engines.length; i++) {
+            nodes += engines[i].getNodes();
+            if (engines[i].getCompletedDepth() > engines[best].getCompletedDepth()) best = i;
+        }
+        completedDepth = engines[best].getCompletedDepth();
+        bestScore = engines[best].getBestScore();
+        return results[best];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !args[0].matches("\\d+")) {
+            System.out.println("Usage: java ParallelSearch <depth> [maxThreads] [tableMB] [saveId]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long tableMegabytes = args.length > 2 ? Long.parseLong(args[2]) : 256;
+        Chess chess = new Chess();
+        chess.GameSetUp(true);
+        if (args.length > 3 && !chess.loadGameFromJungle(args[3])) return;
+
+        System.out.println("threads  nodes         nodes/s       time to depth " + depth);
+        double baseSeconds = 0;
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1) {
+            // A fresh table per run so no run profits from an earlier one
+            ParallelSearch search = new ParallelSearch(threads, depth, 0, tableMegabytes);
+            long start = System.nanoTime();
+            int move = search.findBestMove(chess);
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            if (threads == 1) baseSeconds = seconds;
+            System.out.printf("%-8d %-13d %-13.0f %.3f s (x%.2f)  %s score %d%n", threads, search.getNodes(),
+                    search.getNodes() / seconds, seconds, baseSeconds / seconds,
+                    move < 0 ? "none" : Perft.moveName(move), search.getBestScore());
+        }
+    }
+}
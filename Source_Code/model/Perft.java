@@ -0,0 +1,96 @@
+import java.io.IOException;
+
+// Perft: counts the leaf nodes of the legal move tree to a fixed depth.
+// Used as a correctness oracle for the rules and as a throughput benchmark.
+// Positions where the game has ended are not expanded.
+//
+// Usage: java Perft <depth> [saveId] [divide]
+//   saveId - start from jungle/game_save_<saveId>.jungle instead of the initial setup
+//   divide - print the node count below each root move
+public class Perft {
+    private final Position pos;
+    // One move buffer per ply so the walk never allocates
+    private final int[][] moves;
+
+    public Perft(Position start, int maxDepth) {
+        pos = new Position(start);
+        moves = new int[maxDepth + 1][MoveGenerator.MAX_MOVES];
+    }
+
+    public long perft(int depth) {
+        if (depth == 0) return 1;
+        int[] buffer = moves[depth];
+        int n = MoveGenerator.generateLegalMoves(pos, buffer);
+        if (depth == 1) return n;
+        long nodes = 0;
+        for (int i = 0; i < n; i++) {
+            int delta = pos.make(MoveGenerator.from(buffer[i]), MoveGenerator.to(buffer[i]));
+            if (!pos.isGameOver()) nodes += perft(depth - 1);
+            pos.unmake(delta);
+        }
+        return nodes;
+    }
+
+    // Print the subtree size below every root move and return the total
+    public long divide(int depth) {
+        int[] root = new int[MoveGenerator.MAX_MOVES];
+        int n = MoveGenerator.generateLegalMoves(pos, root);
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            int delta = pos.make(MoveGenerator.from(root[i]), MoveGenerator.to(root[i]));
+            long nodes = depth <= 1 ? 1 : (pos.isGameOver() ? 0 : perft(depth - 1));
+            pos.unmake(delta);
+            System.out.println(moveName(root[i]) + ": " + nodes);
+            total += nodes;
+        }
+        return total;
+    }
+
+    // Move in the notation used by the record files, e.g. "C7 D7"
+    public static String moveName(int move) {
+        return squareName(MoveGenerator.from(move)) + " " + squareName(MoveGenerator.to(move));
+    }
+
+    public static String squareName(int sq) {
+        return "" + (char) ('A' + Position.col(sq)) + Position.row(sq);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !args[0].matches("\\d+")) {
+            System.out.println("Usage: java Perft <depth> [saveId] [divide]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        boolean divide = false;
+        Chess chess = new Chess();
+        chess.GameSetUp(true);
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("divide")) {
+                divide = true;
+            } else if (args[i].matches("\\d+")) {
+                if (!chess.loadGameFromJungle(args[i])) return;
+            } else {
+                System.out.println("Unknown argument: " + args[i]);
+                return;
+            }
+        }
+
+        Perft perft = new Perft(chess.getPosition(), depth);
+        if (divide) {
+            long start = System.nanoTime();
+            long nodes = perft.divide(depth);
+            report(depth, nodes, System.nanoTime() - start);
+            return;
+        }
+        for (int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long nodes = perft.perft(d);
+            report(d, nodes, System.nanoTime() - start);
+        }
+    }
+
+    private static void report(int depth, long nodes, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        System.out.printf("depth %d  nodes %d  time %.3f s  %.0f nodes/s%n", depth, nodes, seconds, nodes / seconds);
+    }
+}
@@ -0,0 +1,383 @@
+// Compact position core behind Chess.
+// Squares are numbered row * COLS + col (0..69). A set of squares is kept in two longs:
+// "lo" holds squares 0..63 and "hi" holds squares 64..69.
+public class Position {
+    public static final int ROWS = 10;
+    public static final int COLS = 7;
+    public static final int SQUARES = ROWS * COLS;
+
+    // Side indices
+    public static final int RED = 0;
+    public static final int BLUE = 1;
+
+    // Piece codes: 0 = empty, 1..8 = red rank 1..8, 9..16 = blue rank 1..8
+    public static final int EMPTY = 0;
+    public static final int PIECE_CODES = 17;
+
+    public static final int RAT = 1;
+    public static final int TIGER = 6;
+    public static final int LION = 7;
+    public static final int ELEPHANT = 8;
+
+    // Dens: a piece entering the opponent's den wins the game
+    public static final int BLUE_DEN = 1 * COLS + 3;
+    public static final int RED_DEN = 9 * COLS + 3;
+
+    // Directions used by the jump tables and the move generator
+    public static final int NORTH = 0;
+    public static final int SOUTH = 1;
+    public static final int WEST = 2;
+    public static final int EAST = 3;
+
+    // Terrain masks (constant for the whole game)
+    static final long RIVER_LO, RIVER_HI;
+    // TRAP_xx[s] = traps in which pieces of side s can be captured by any rank
+    static final long[] TRAP_LO = new long[2];
+    static final long[] TRAP_HI = new long[2];
+
+    static {
+        long rlo = 0, rhi = 0;
+        for (int r = 4; r <= 6; r++) {
+            for (int c : new int[] {1, 2, 4, 5}) {
+                int sq = square(r, c);
+                if (sq < 64) rlo |= 1L << sq; else rhi |= 1L << (sq - 64);
+            }
+        }
+        RIVER_LO = rlo;
+        RIVER_HI = rhi;
+
+        // Traps around the blue den weaken red pieces and vice versa
+        int[][] redWeak = {{1, 2}, {1, 4}, {2, 3}};
+        int[][] blueWeak = {{9, 2}, {9, 4}, {8, 3}};
+        for (int[] t : redWeak) addTrap(RED, square(t[0], t[1]));
+        for (int[] t : blueWeak) addTrap(BLUE, square(t[0], t[1]));
+    }
+
+    // Zobrist keys: one per piece code and square, plus one for "blue to move".
+    // Fixed seed so hashes are stable across runs and can be stored in files.
+    static final long[][] ZOBRIST = new long[PIECE_CODES][SQUARES];
+    static final long ZOBRIST_BLUE_TO_MOVE;
+
+    static {
+        java.util.SplittableRandom rnd = new java.util.SplittableRandom(0x4A554E474C45L);
+        for (int code = 1; code < PIECE_CODES; code++) {
+            for (int sq = 0; sq < SQUARES; sq++) {
+                ZOBRIST[code][sq] = rnd.nextLong();
+            }
+        }
+        ZOBRIST_BLUE_TO_MOVE = rnd.nextLong();
+    }
+
+    // Tiger/lion river jumps, computed once from the river layout. For index sq * 4 + dir,
+    // JUMP_TARGET is the landing square (or -1) and JUMP_PATH_xx the river squares that must hold no rat.
+    static final int[] JUMP_TARGET = new int[SQUARES * 4];
+    static final long[] JUMP_PATH_LO = new long[SQUARES * 4];
+    static final long[] JUMP_PATH_HI = new long[SQUARES * 4];
+
+    static {
+        int[] dRow = {-1, 1, 0, 0};
+        int[] dCol = {0, 0, -1, 1};
+        for (int sq = 0; sq < SQUARES; sq++) {
+            for (int dir = 0; dir < 4; dir++) {
+                int i = sq * 4 + dir;
+                JUMP_TARGET[i] = -1;
+                int r = row(sq) + dRow[dir], c = col(sq) + dCol[dir];
+                long pathLo = 0, pathHi = 0;
+                while (r >= 1 && r < ROWS && c >= 0 && c < COLS && isRiver(square(r, c))) {
+                    int over = square(r, c);
+                    if (over < 64) pathLo |= 1L << over; else pathHi |= 1L << (over - 64);
+                    r += dRow[dir];
+                    c += dCol[dir];
+                }
+                if ((pathLo | pathHi) != 0 && r >= 1 && r < ROWS && c >= 0 && c < COLS) {
+                    JUMP_TARGET[i] = square(r, c);
+                    JUMP_PATH_LO[i] = pathLo;
+                    JUMP_PATH_HI[i] = pathHi;
+                }
+            }
+        }
+    }
+
+    private static void addTrap(int side, int sq) {
+        if (sq < 64) TRAP_LO[side] |= 1L << sq;
+        else TRAP_HI[side] |= 1L << (sq - 64);
+    }
+
+    // Per side/rank bitboards, index side * 9 + rank; rank 0 holds every piece of that side
+    final long[] lo = new long[18];
+    final long[] hi = new long[18];
+    // Piece code per square, for O(1) "what is on this square" lookups
+    final byte[] mailbox = new byte[SQUARES];
+    int sideToMove = RED;
+    // Piece count per side and bitmask of ranks still on the board (bit r = rank r), kept by put/remove
+    final int[] material = new int[2];
+    final int[] rankMask = new int[2];
+    // Piece list: square of each piece code, -1 if not on the board (one piece per side and rank)
+    final byte[] pieceSquare = new byte[PIECE_CODES];
+    // Zobrist hash of piece placement and side to move, updated incrementally
+    long key;
+    // Piece-square tables in use and the sum of their entries for the pieces on the board
+    // (red's point of view), updated incrementally like key
+    int[][] pst = Evaluation.DEFAULT.table;
+    int psq;
+
+    public Position() {
+        java.util.Arrays.fill(pieceSquare, (byte) -1);
+    }
+
+    public Position(Position other) {
+        System.arraycopy(other.lo, 0, lo, 0, lo.length);
+        System.arraycopy(other.hi, 0, hi, 0, hi.length);
+        System.arraycopy(other.mailbox, 0, mailbox, 0, SQUARES);
+        sideToMove = other.sideToMove;
+        key = other.key;
+        material[RED] = other.material[RED];
+        material[BLUE] = other.material[BLUE];
+        rankMask[RED] = other.rankMask[RED];
+        rankMask[BLUE] = other.rankMask[BLUE];
+        System.arraycopy(other.pieceSquare, 0, pieceSquare, 0, PIECE_CODES);
+        pst = other.pst;
+        psq = other.psq;
+    }
+
+    public static int square(int row, int col) {
+        return row * COLS + col;
+    }
+
+    public static int row(int sq) {
+        return sq / COLS;
+    }
+
+    public static int col(int sq) {
+        return sq % COLS;
+    }
+
+    public static int code(int side, int rank) {
+        return side * 8 + rank;
+    }
+
+    public static int sideOf(int code) {
+        return (code - 1) >> 3;
+    }
+
+    public static int rankOf(int code) {
+        return ((code - 1) & 7) + 1;
+    }
+
+    static boolean test(long lo, long hi, int sq) {
+        return sq < 64 ? (lo >>> sq & 1L) != 0 : (hi >>> (sq - 64) & 1L) != 0;
+    }
+
+    public static boolean isRiver(int sq) {
+        return test(RIVER_LO, RIVER_HI, sq);
+    }
+
+    // True if a piece of the given side standing on sq can be captured by any enemy piece
+    public static boolean isTrapFor(int sq, int side) {
+        return test(TRAP_LO[side], TRAP_HI[side], sq);
+    }
+
+    // Direction of a straight move from one square to another, or -1 if not in line
+    public static int direction(int from, int to) {
+        if (from == to) return -1;
+        if (col(from) == col(to)) return to < from ? NORTH : SOUTH;
+        if (row(from) == row(to)) return to < from ? WEST : EAST;
+        return -1;
+    }
+
+    // Landing square of a tiger/lion jump from sq in direction dir, or -1 if there is no river to cross
+    public static int jumpTarget(int sq, int dir) {
+        return JUMP_TARGET[sq * 4 + dir];
+    }
+
+    // True if a rat of either side sits on the river squares crossed by that jump
+    public boolean jumpBlocked(int sq, int dir) {
+        int i = sq * 4 + dir;
+        int ratRed = RED * 9 + RAT, ratBlue = BLUE * 9 + RAT;
+        return ((lo[ratRed] | lo[ratBlue]) & JUMP_PATH_LO[i]) != 0
+                || ((hi[ratRed] | hi[ratBlue]) & JUMP_PATH_HI[i]) != 0;
+    }
+
+    public int pieceAt(int sq) {
+        return mailbox[sq];
+    }
+
+    public boolean isRat(int sq) {
+        int p = mailbox[sq];
+        return p != EMPTY && rankOf(p) == RAT;
+    }
+
+    public int getSideToMove() {
+        return sideToMove;
+    }
+
+    public void setSideToMove(int side) {
+        if (side != sideToMove) key ^= ZOBRIST_BLUE_TO_MOVE;
+        sideToMove = side;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public int count(int side) {
+        return material[side];
+    }
+
+    // Square of the given side's piece of that rank, or -1 if it has been captured
+    public int squareOf(int side, int rank) {
+        return pieceSquare[code(side, rank)];
+    }
+
+    public int getRankMask(int side) {
+        return rankMask[side];
+    }
+
+    public boolean hasRank(int side, int rank) {
+        return (rankMask[side] >>> rank & 1) != 0;
+    }
+
+    // True once a side has lost every piece or an enemy piece stands in its den
+    public boolean isGameOver() {
+        if (material[RED] == 0 || material[BLUE] == 0) return true;
+        int inBlueDen = mailbox[BLUE_DEN], inRedDen = mailbox[RED_DEN];
+        return (inBlueDen != EMPTY && sideOf(inBlueDen) == RED)
+                || (inRedDen != EMPTY && sideOf(inRedDen) == BLUE);
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(lo, 0L);
+        java.util.Arrays.fill(hi, 0L);
+        java.util.Arrays.fill(mailbox, (byte) EMPTY);
+        sideToMove = RED;
+        key = 0L;
+        material[RED] = material[BLUE] = 0;
+        rankMask[RED] = rankMask[BLUE] = 0;
+        java.util.Arrays.fill(pieceSquare, (byte) -1);
+        psq = 0;
+    }
+
+    // Switch to other evaluation weights and recompute the piece-square sum
+    public void setEvaluation(Evaluation eval) {
+        pst = eval.table;
+        psq = eval.evaluate(this);
+    }
+
+    // Piece-square score from red's point of view
+    public int getPieceSquareScore() {
+        return psq;
+    }
+
+    // Put a piece on an empty square; each side has at most one piece per rank
+    public void put(int sq, int code) {
+        int side = sideOf(code);
+        int set = side * 9;
+        if (sq < 64) {
+            long bit = 1L << sq;
+            lo[set] |= bit;
+            lo[set + rankOf(code)] |= bit;
+        } else {
+            long bit = 1L << (sq - 64);
+            hi[set] |= bit;
+            hi[set + rankOf(code)] |= bit;
+        }
+        mailbox[sq] = (byte) code;
+        key ^= ZOBRIST[code][sq];
+        psq += pst[code][sq];
+        material[side]++;
+        rankMask[side] |= 1 << rankOf(code);
+        pieceSquare[code] = (byte) sq;
+    }
+
+    // Remove whatever piece stands on sq and return its code
+    public int remove(int sq) {
+        int code = mailbox[sq];
+        if (code == EMPTY) return EMPTY;
+        int side = sideOf(code);
+        int rank = rankOf(code);
+        int set = side * 9;
+        if (sq < 64) {
+            long bit = ~(1L << sq);
+            lo[set] &= bit;
+            lo[set + rankOf(code)] &= bit;
+        } else {
+            long bit = ~(1L << (sq - 64));
+            hi[set] &= bit;
+            hi[set + rankOf(code)] &= bit;
+        }
+        mailbox[sq] = EMPTY;
+        key ^= ZOBRIST[code][sq];
+        psq -= pst[code][sq];
+        material[side]--;
+        rankMask[side] &= ~(1 << rank);
+        pieceSquare[code] = -1;
+        return code;
+    }
+
+    // Slide a piece between squares; material and rank presence do not change
+    private void relocate(int from, int to, int code) {
+        int all = sideOf(code) * 9;
+        int set = all + rankOf(code);
+        if (from < 64) {
+            long bit = 1L << from;
+            lo[all] ^= bit;
+            lo[set] ^= bit;
+        } else {
+            long bit = 1L << (from - 64);
+            hi[all] ^= bit;
+            hi[set] ^= bit;
+        }
+        if (to < 64) {
+            long bit = 1L << to;
+            lo[all] ^= bit;
+            lo[set] ^= bit;
+        } else {
+            long bit = 1L << (to - 64);
+            hi[all] ^= bit;
+            hi[set] ^= bit;
+        }
+        mailbox[from] = EMPTY;
+        mailbox[to] = (byte) code;
+        pieceSquare[code] = (byte) to;
+        key ^= ZOBRIST[code][from] ^ ZOBRIST[code][to];
+        psq += pst[code][to] - pst[code][from];
+    }
+
+    // Make a move without any rule checks and return the delta needed to unmake it:
+    // bits 0-6 from, 7-13 to, 14-18 moved piece, 19-23 captured piece, 24 side that moved
+    public int make(int from, int to) {
+        int moved = mailbox[from];
+        int captured = remove(to);
+        relocate(from, to, moved);
+        int delta = from | to << 7 | moved << 14 | captured << 19 | sideToMove << 24;
+        sideToMove ^= 1;
+        key ^= ZOBRIST_BLUE_TO_MOVE;
+        return delta;
+    }
+
+    // Revert a move made by make(); allocation free
+    public void unmake(int delta) {
+        int to = deltaTo(delta);
+        relocate(to, deltaFrom(delta), deltaMoved(delta));
+        int captured = deltaCaptured(delta);
+        if (captured != EMPTY) put(to, captured);
+        sideToMove = delta >>> 24 & 1;
+        key ^= ZOBRIST_BLUE_TO_MOVE;
+    }
+
+    public static int deltaFrom(int delta) {
+        return delta & 0x7F;
+    }
+
+    public static int deltaTo(int delta) {
+        return delta >>> 7 & 0x7F;
+    }
+
+    public static int deltaMoved(int delta) {
+        return delta >>> 14 & 0x1F;
+    }
+
+    public static int deltaCaptured(int delta) {
+        return delta >>> 19 & 0x1F;
+    }
+}
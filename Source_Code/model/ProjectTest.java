@@ -436,6 +436,816 @@ public class ProjectTest {
         Files.deleteIfExists(dir.resolve("game_save_"+filenum+".jungle"));
     }
     
+    // Position: bitboard core follows the board view through moves and captures
+    // pass
+    @Test
+    public void test_position_mirrors_board() {
+        Position pos = chess.getPosition();
+        for (int r = 0; r < Chess.ROWS; r++) {
+            for (int c = 0; c < Chess.COLS; c++) {
+                Chess.Piece p = chess.board[r][c].piece;
+                int code = pos.pieceAt(Position.square(r, c));
+                if (p == null) assertEquals(Position.EMPTY, code);
+                else assertEquals(Position.code(p.owner.side == Chess.Side.RED ? Position.RED : Position.BLUE, p.rank), code);
+            }
+        }
+        chess.movePiece(7, 6, 6, 6); // Red rat moves
+        chess.movePiece(3, 6, 4, 6); // Blue elephant moves
+        chess.movePiece(6, 6, 5, 6); // Red rat moves
+        chess.movePiece(3, 0, 4, 0); // Blue rat moves
+        assertTrue(chess.movePiece(5, 6, 4, 6)); // Red rat captures blue elephant
+        assertEquals(Position.code(Position.RED, 1), pos.pieceAt(Position.square(4, 6)));
+        assertEquals(Position.EMPTY, pos.pieceAt(Position.square(5, 6)));
+        assertEquals(7, pos.count(Position.BLUE));
+        assertEquals(Position.BLUE, pos.getSideToMove());
+    }
+
+    // Position: terrain masks match the board layout
+    // pass
+    @Test
+    public void test_position_terrain() {
+        for (int r = 0; r < Chess.ROWS; r++) {
+            for (int c = 0; c < Chess.COLS; c++) {
+                Chess.Cell cell = chess.board[r][c];
+                int sq = Position.square(r, c);
+                assertEquals(cell.isRiver, Position.isRiver(sq));
+                assertEquals(cell.isTrap && cell.denOwner == Chess.Side.RED, Position.isTrapFor(sq, Position.RED));
+                assertEquals(cell.isTrap && cell.denOwner == Chess.Side.BLUE, Position.isTrapFor(sq, Position.BLUE));
+            }
+        }
+    }
+    
+    // Position: make/unmake restores every bitboard, including captures
+    // pass
+    @Test
+    public void test_position_make_unmake() {
+        chess.movePiece(7, 6, 6, 6); // Red rat moves
+        chess.movePiece(3, 6, 4, 6); // Blue elephant moves
+        chess.movePiece(6, 6, 5, 6); // Red rat moves
+        chess.movePiece(3, 0, 4, 0); // Blue rat moves
+        Position pos = new Position(chess.getPosition());
+        Position before = new Position(pos);
+        int delta = pos.make(Position.square(5, 6), Position.square(4, 6)); // Red rat takes blue elephant
+        assertEquals(Position.code(Position.BLUE, 8), Position.deltaCaptured(delta));
+        assertEquals(7, pos.count(Position.BLUE));
+        pos.unmake(delta);
+        assertArrayEquals(before.lo, pos.lo);
+        assertArrayEquals(before.hi, pos.hi);
+        assertArrayEquals(before.mailbox, pos.mailbox);
+        assertEquals(before.getSideToMove(), pos.getSideToMove());
+    }
+
+    // undo(): reverts a capture in the board view, rejected moves are not recorded
+    // pass
+    @Test
+    public void test_undo_restores_capture() {
+        chess.movePiece(7, 6, 6, 6); // Red rat moves
+        chess.movePiece(3, 6, 4, 6); // Blue elephant moves
+        chess.movePiece(6, 6, 5, 6); // Red rat moves
+        chess.movePiece(3, 0, 4, 0); // Blue rat moves
+        assertTrue(chess.movePiece(5, 6, 4, 6)); // Red rat captures blue elephant
+        assertFalse(chess.movePiece(9, 6, 8, 6)); // Rejected move leaves no history
+        assertTrue(chess.undo());
+        assertEquals(8, chess.board[4][6].piece.rank);
+        assertEquals(Chess.Side.BLUE, chess.board[4][6].piece.owner.side);
+        assertEquals(1, chess.board[5][6].piece.rank);
+        assertEquals(8, chess.countRemainingPieces(Chess.Side.BLUE));
+        assertEquals(Chess.Side.RED, chess.getCurrentPlayer().side);
+    }
+    
+    // getPositionHash(): transpositions share a key, undo restores it
+    // pass
+    @Test
+    public void test_position_hash() throws IOException {
+        long start = chess.getPositionHash();
+        chess.movePiece(7, 2, 7, 3); // Red wolf moves
+        assertNotEquals(start, chess.getPositionHash());
+        chess.movePiece(3, 4, 3, 5); // Blue wolf moves
+        long afterWolves = chess.getPositionHash();
+        chess.movePiece(7, 4, 7, 5); // Red leopard moves
+        chess.movePiece(3, 2, 3, 3); // Blue leopard moves
+        long transposed = chess.getPositionHash();
+
+        Chess other = new Chess();
+        other.GameSetUp(true);
+        assertEquals(start, other.getPositionHash());
+        other.movePiece(7, 4, 7, 5); // Red leopard moves
+        other.movePiece(3, 2, 3, 3); // Blue leopard moves
+        other.movePiece(7, 2, 7, 3); // Red wolf moves
+        other.movePiece(3, 4, 3, 5); // Blue wolf moves
+        assertEquals(transposed, other.getPositionHash());
+
+        chess.undo();
+        chess.undo();
+        assertEquals(afterWolves, chess.getPositionHash());
+    }
+    
+    // generateLegalMoves(): agrees with movePiece on every from/to pair, including jumps,
+    // rat blocking, river entry and rat vs elephant captures
+    // pass
+    @Test
+    public void test_generate_legal_moves() throws IOException {
+        int[][] script = {
+            {7, 6, 6, 6}, {3, 6, 4, 6}, {6, 6, 5, 6}, {3, 0, 4, 0}, // rats and elephant advance
+            {7, 0, 6, 0}, {4, 0, 4, 1}, {6, 0, 5, 0}, {4, 1, 5, 1}, // blue rat swims
+            {9, 0, 8, 0}, {5, 1, 6, 1}, {8, 0, 7, 0}, {1, 6, 2, 6}, // red tiger walks up
+            {7, 0, 6, 0}, {1, 0, 2, 0}                              // tiger jump now blocked by the rat
+        };
+        Chess probe = new Chess();
+        probe.GameSetUp(true);
+        for (int[] m : script) assertTrue(probe.movePiece(m[0], m[1], m[2], m[3]));
+        int[] buffer = new int[MoveGenerator.MAX_MOVES];
+        int n = probe.generateLegalMoves(buffer);
+        java.util.Set<Integer> generated = new java.util.HashSet<>();
+        for (int i = 0; i < n; i++) generated.add(buffer[i]);
+        assertEquals(n, generated.size());
+
+        for (int from = 0; from < Position.SQUARES; from++) {
+            for (int to = 0; to < Position.SQUARES; to++) {
+                Chess c = new Chess();
+                c.GameSetUp(true);
+                for (int[] m : script) c.movePiece(m[0], m[1], m[2], m[3]);
+                boolean legal = c.movePiece(Position.row(from), Position.col(from), Position.row(to), Position.col(to));
+                assertEquals("move " + from + "->" + to, legal, generated.contains(MoveGenerator.move(from, to)));
+            }
+        }
+    }
+    
+    // Position: precomputed river jump targets
+    // pass
+    @Test
+    public void test_jump_tables() {
+        assertEquals(Position.square(7, 1), Position.jumpTarget(Position.square(3, 1), Position.SOUTH));
+        assertEquals(Position.square(3, 5), Position.jumpTarget(Position.square(7, 5), Position.NORTH));
+        assertEquals(Position.square(4, 3), Position.jumpTarget(Position.square(4, 0), Position.EAST));
+        assertEquals(Position.square(6, 0), Position.jumpTarget(Position.square(6, 3), Position.WEST));
+        assertEquals(Position.square(5, 6), Position.jumpTarget(Position.square(5, 3), Position.EAST));
+        assertEquals(-1, Position.jumpTarget(Position.square(3, 3), Position.SOUTH));
+        assertEquals(-1, Position.jumpTarget(Position.square(4, 0), Position.WEST));
+        assertFalse(chess.getPosition().jumpBlocked(Position.square(7, 1), Position.NORTH));
+    }
+    
+    // Perft: node counts from the initial setup, position unchanged afterwards
+    // pass
+    @Test
+    public void test_perft_initial_position() {
+        Perft perft = new Perft(chess.getPosition(), 4);
+        assertEquals(24, perft.perft(1));
+        assertEquals(576, perft.perft(2));
+        assertEquals(12240, perft.perft(3));
+        assertEquals(260099, perft.perft(4));
+        assertEquals(12240, perft.divide(3));
+        assertEquals(24, new Perft(chess.getPosition(), 1).perft(1));
+    }
+    
+    // tryMove()/tryUndo(): structured results and no console output
+    // pass
+    @Test
+    public void test_silent_move_results() {
+        assertEquals(MoveResult.ACTION_ROW, chess.tryMove(7, 2, 0, 2));
+        assertEquals(MoveResult.NO_PIECE, chess.tryMove(7, 1, 7, 2));
+        assertEquals(MoveResult.NOT_OWN_PIECE, chess.tryMove(1, 0, 2, 0));
+        assertEquals(MoveResult.NOT_ONE_STEP, chess.tryMove(7, 2, 5, 2));
+        assertEquals(MoveResult.ONLY_RAT_IN_WATER, chess.tryMove(7, 2, 6, 2));
+        assertEquals(MoveResult.OK, chess.tryMove(9, 0, 8, 0)); // Red tiger moves
+        assertEquals(MoveResult.OK, chess.tryMove(1, 0, 1, 1)); // Blue lion moves
+        assertEquals(MoveResult.OWN_PIECE_AT_TARGET, chess.tryMove(8, 0, 7, 0));
+        assertEquals(MoveResult.OK, chess.tryUndo());
+        assertEquals(MoveResult.OK, chess.tryUndo());
+        assertEquals(MoveResult.NOTHING_TO_UNDO, chess.tryUndo());
+
+        assertEquals(MoveResult.OK, chess.tryMove(7, 6, 6, 6)); // Red rat moves
+        assertEquals(MoveResult.OK, chess.tryMove(3, 6, 4, 6)); // Blue elephant moves
+        assertEquals(MoveResult.OK, chess.tryMove(6, 6, 5, 6)); // Red rat moves
+        assertEquals(MoveResult.ELEPHANT_VS_RAT, chess.tryMove(4, 6, 5, 6));
+        assertEquals("", outContent.toString());
+    }
+    
+    // Position: material and rank presence follow captures and unmake
+    // pass
+    @Test
+    public void test_material_tracking() {
+        Position pos = new Position(chess.getPosition());
+        assertEquals(8, pos.count(Position.BLUE));
+        assertEquals(0x1FE, pos.getRankMask(Position.BLUE));
+        pos.make(Position.square(7, 6), Position.square(6, 6)); // Red rat moves
+        pos.make(Position.square(3, 6), Position.square(4, 6)); // Blue elephant moves
+        pos.make(Position.square(6, 6), Position.square(5, 6)); // Red rat moves
+        pos.make(Position.square(3, 0), Position.square(4, 0)); // Blue rat moves
+        int delta = pos.make(Position.square(5, 6), Position.square(4, 6)); // Red rat takes blue elephant
+        assertEquals(7, pos.count(Position.BLUE));
+        assertFalse(pos.hasRank(Position.BLUE, Position.ELEPHANT));
+        assertTrue(pos.hasRank(Position.RED, Position.RAT));
+        pos.unmake(delta);
+        assertEquals(8, pos.count(Position.BLUE));
+        assertTrue(pos.hasRank(Position.BLUE, Position.ELEPHANT));
+        assertFalse(pos.isGameOver());
+    }
+    
+    // stepBack()/stepForward(): whole game can be reviewed, redo list is cut by a new move
+    // pass
+    @Test
+    public void test_history_step_back_and_forward() {
+        long start = chess.getPositionHash();
+        int[][] moves = {{7, 2, 7, 3}, {3, 4, 3, 5}, {7, 3, 7, 2}, {3, 5, 3, 4}};
+        for (int round = 0; round < 20; round++) {
+            for (int[] m : moves) assertTrue(chess.movePiece(m[0], m[1], m[2], m[3]));
+        }
+        long end = chess.getPositionHash();
+        assertEquals(80, chess.getPly());
+        while (chess.stepBack()) { }
+        assertEquals(start, chess.getPositionHash());
+        assertEquals(80, chess.getRedoCount());
+        assertEquals(3, chess.redUndoRemaining); // reviewing does not spend the undo quota
+        while (chess.stepForward()) { }
+        assertEquals(end, chess.getPositionHash());
+
+        assertTrue(chess.undo());
+        assertTrue(chess.redo());
+        assertEquals(end, chess.getPositionHash());
+        assertEquals(2, chess.blueUndoRemaining); // redo does not refund the undo
+        chess.stepBack();
+        assertTrue(chess.movePiece(3, 2, 3, 3)); // Blue leopard moves
+        assertEquals(0, chess.getRedoCount());
+        assertFalse(chess.redo());
+        assertTrue(outContent.toString().contains("No moves to redo."));
+    }
+    
+    // findPiece(): piece index follows moves, captures and undo
+    // pass
+    @Test
+    public void test_find_piece() {
+        assertEquals(Position.square(9, 6), chess.findPiece(Chess.Side.RED, 7));
+        assertEquals(Position.square(3, 6), chess.findPiece(Chess.Side.BLUE, 8));
+        chess.movePiece(7, 6, 6, 6); // Red rat moves
+        chess.movePiece(3, 6, 4, 6); // Blue elephant moves
+        chess.movePiece(6, 6, 5, 6); // Red rat moves
+        chess.movePiece(3, 0, 4, 0); // Blue rat moves
+        chess.movePiece(5, 6, 4, 6); // Red rat captures blue elephant
+        assertEquals(-1, chess.findPiece(Chess.Side.BLUE, 8));
+        assertEquals(Position.square(4, 6), chess.findPiece(Chess.Side.RED, 1));
+        chess.undo();
+        assertEquals(Position.square(4, 6), chess.findPiece(Chess.Side.BLUE, 8));
+        assertEquals(Position.square(5, 6), chess.findPiece(Chess.Side.RED, 1));
+    }
+
+    // Engine: takes a free den entry and a free capture, root position unchanged
+    // pass
+    @Test
+    public void test_engine_finds_win_and_capture() {
+        Position pos = new Position();
+        pos.clear();
+        pos.put(Position.square(2, 3), Position.code(Position.RED, 2)); // red cat next to the blue den
+        pos.put(Position.square(7, 0), Position.code(Position.RED, 8));
+        pos.put(Position.square(9, 6), Position.code(Position.BLUE, 8));
+        Engine engine = new Engine(4, 0);
+        long key = pos.getKey();
+        assertEquals(MoveGenerator.move(Position.square(2, 3), Position.BLUE_DEN), engine.search(pos));
+        assertTrue(engine.getBestScore() >= Engine.WIN - Engine.MAX_PLY);
+        assertEquals(key, pos.getKey());
+
+        pos.clear();
+        pos.put(Position.square(5, 0), Position.code(Position.RED, 8));
+        pos.put(Position.square(4, 0), Position.code(Position.BLUE, 6));
+        pos.put(Position.square(1, 6), Position.code(Position.BLUE, 3));
+        assertEquals(MoveGenerator.move(Position.square(5, 0), Position.square(4, 0)), engine.search(pos));
+        pos.clear();
+        assertEquals(-1, engine.search(pos));
+    }
+
+    // Engine.ponder(): runs without a clock until hit() starts it or stop() abandons it
+    // pass
+    @Test
+    public void test_engine_ponder() throws InterruptedException {
+        Engine engine = new Engine(Engine.MAX_PLY - 1, 100);
+        Position root = new Position(chess.getPosition());
+        int[] result = {-2};
+        Engine.Ponder control = new Engine.Ponder();
+        Thread thinker = new Thread(() -> result[0] = engine.ponder(root, control));
+        thinker.start();
+        thinker.join(300);
+        assertTrue(thinker.isAlive()); // no clock while pondering
+        control.hit(); // more than the time limit has passed, so it answers at once
+        thinker.join(2000);
+        assertFalse(thinker.isAlive());
+        assertTrue(result[0] >= 0);
+
+        Engine.Ponder abandoned = new Engine.Ponder();
+        thinker = new Thread(() -> result[0] = engine.ponder(root, abandoned));
+        thinker.start();
+        abandoned.stop();
+        thinker.join(2000);
+        assertFalse(thinker.isAlive());
+        // A normal search afterwards is unaffected
+        assertTrue(engine.search(root) >= 0);
+    }
+
+    // Engine.stop(): an unlimited search answers with its best move so far; the listener sees every iteration
+    // pass
+    @Test
+    public void test_engine_stop() throws InterruptedException {
+        Engine engine = new Engine(Engine.MAX_PLY - 1, 0);
+        Position root = new Position(chess.getPosition());
+        java.util.List<Integer> depths = new java.util.concurrent.CopyOnWriteArrayList<>();
+        java.util.List<int[]> lines = new java.util.concurrent.CopyOnWriteArrayList<>();
+        engine.setListener((depth, score, nodes, millis, pv) -> {
+            depths.add(depth);
+            lines.add(pv);
+        });
+        int[] result = {-2};
+        Thread thinker = new Thread(() -> result[0] = engine.search(root));
+        thinker.start();
+        thinker.join(300);
+        assertTrue(thinker.isAlive()); // no time limit
+        engine.stop();
+        thinker.join(2000);
+        assertFalse(thinker.isAlive());
+
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        int n = MoveGenerator.generateLegalMoves(root, legal);
+        assertTrue(Arrays.stream(legal, 0, n).anyMatch(m -> m == result[0]));
+        assertFalse(depths.isEmpty());
+        for (int i = 0; i < depths.size(); i++) assertEquals(i + 1, (int) depths.get(i));
+        assertEquals(engine.getCompletedDepth(), (int) depths.get(depths.size() - 1));
+        // The line is playable and starts with the move reported for that depth
+        int[] pv = engine.getPrincipalVariation();
+        assertArrayEquals(lines.get(lines.size() - 1), pv);
+        assertTrue(pv.length >= 1);
+        Position line = new Position(root);
+        for (int move : pv) {
+            assertEquals(MoveResult.OK, MoveGenerator.validate(line, MoveGenerator.from(move), MoveGenerator.to(move)));
+            line.make(MoveGenerator.from(move), MoveGenerator.to(move));
+        }
+
+        // A stop before the search starts is not carried over, and a per-call limit bounds the time
+        engine.stop();
+        long start = System.nanoTime();
+        assertTrue(engine.findBestMove(chess, 100) >= 0);
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        assertTrue(engine.getCompletedDepth() > 1);
+    }
+
+    // ParallelSearch: workers share the table, agree on a forced capture and leave the root alone
+    // pass
+    @Test
+    public void test_parallel_search() {
+        Position pos = new Position();
+        pos.clear();
+        pos.put(Position.square(5, 0), Position.code(Position.RED, 8));
+        pos.put(Position.square(4, 0), Position.code(Position.BLUE, 6));
+        pos.put(Position.square(1, 6), Position.code(Position.BLUE, 3));
+        long key = pos.getKey();
+        ParallelSearch search = new ParallelSearch(3, 5, 0, 1);
+        assertEquals(3, search.getThreads());
+        assertEquals(MoveGenerator.move(Position.square(5, 0), Position.square(4, 0)), search.search(pos));
+        assertEquals(5, search.getCompletedDepth());
+        assertTrue(search.getNodes() > 0);
+        assertEquals(key, pos.getKey());
+        assertNotEquals(TranspositionTable.MISS, search.getTable().probe(key));
+    }
+
+    // MctsEngine: tree-parallel playouts find the den entry and stop at the playout limit
+    // pass
+    @Test
+    public void test_mcts_finds_den_entry() {
+        Position pos = new Position();
+        pos.clear();
+        pos.put(Position.square(2, 3), Position.code(Position.RED, 2));
+        pos.put(Position.square(7, 0), Position.code(Position.RED, 8));
+        pos.put(Position.square(9, 6), Position.code(Position.BLUE, 8));
+        pos.put(Position.square(4, 4), Position.code(Position.BLUE, 5));
+        long key = pos.getKey();
+        MctsEngine mcts = new MctsEngine(Math.sqrt(2), 0, 3000, 2);
+        assertEquals(MoveGenerator.move(Position.square(2, 3), Position.BLUE_DEN), mcts.search(pos));
+        assertEquals(3000, mcts.getPlayouts());
+        assertEquals(key, pos.getKey());
+        assertEquals(-1, new MctsEngine().findBestMove(new Chess()));
+    }
+
+    // Tablebase: solved values, lookup through the mapped file, and an interrupted run resumes to the same table
+    // pass
+    @Test
+    public void test_tablebase() throws IOException {
+        Path dir = Files.createTempDirectory("tablebase");
+        int[] codes = Tablebase.parseSet("2v1");
+        assertEquals("2v1", Tablebase.setName(codes));
+        Tablebase full = Tablebase.generate(codes, dir.resolve("full.jtb"), 2);
+        Tablebase partial = Tablebase.generate(codes, dir.resolve("resumed.jtb"), 2, 3);
+        partial.close();
+        Tablebase resumed = Tablebase.generate(codes, dir.resolve("resumed.jtb"), 1);
+        for (long i = 0; i < full.size(); i++) assertEquals(full.get(i), resumed.get(i));
+        full.close();
+        resumed.close();
+
+        Tablebase table = Tablebase.open(dir.resolve("full.jtb"));
+        Position pos = new Position();
+        pos.clear();
+        pos.put(Position.square(2, 3), Position.code(Position.RED, 2));
+        pos.put(Position.square(6, 6), Position.code(Position.BLUE, 1));
+        int value = table.probe(pos);
+        assertTrue(Tablebase.isWin(value));
+        assertEquals(1, Tablebase.plies(value));
+        assertEquals(MoveGenerator.move(Position.square(2, 3), Position.BLUE_DEN), table.bestMove(pos));
+        pos.setSideToMove(Position.BLUE);
+        assertTrue(Tablebase.isLoss(table.probe(pos)));
+        // Only the red cat and blue rat (or fewer) are covered
+        assertEquals(-1, table.probe(chess.getPosition()));
+        assertNull(Tablebase.find(java.util.List.of(table), chess.getPosition()));
+        table.close();
+        Files.deleteIfExists(dir.resolve("full.jtb"));
+        Files.deleteIfExists(dir.resolve("resumed.jtb"));
+        Files.deleteIfExists(dir);
+    }
+
+    // OpeningBook: replays records with undos, counts results, and the engine plays from it
+    // pass
+    @Test
+    public void test_opening_book() throws IOException {
+        Path dir = Files.createTempDirectory("records");
+        Files.writeString(dir.resolve("game_log_1.record"), "start a b\nmove C7 D7\nmove C3 D3\nundo\nmove G3 G4\na (Red) wins by entering Blue's den!\n");
+        Files.writeString(dir.resolve("game_log_2.record"), "start c d\nmove C7 D7\nmove G3 G4\nd (Blue) wins by capturing all opponent's pieces!\n");
+        Files.writeString(dir.resolve("game_log_3.record"), "start e f\nmove E7 D7\n");
+        Files.writeString(dir.resolve("game_log_4.record"), "start g h\nmove A1 A2\nmove C7 D7\n");
+        Path file = dir.resolve("book.jbk");
+        assertEquals(4, OpeningBook.build(dir, 8, file));
+
+        OpeningBook book = OpeningBook.open(file);
+        assertEquals(3, book.size());
+        Position pos = new Position(chess.getPosition());
+        java.util.List<OpeningBook.BookMove> moves = book.lookup(pos);
+        assertEquals(2, moves.size());
+        assertEquals(MoveGenerator.move(Position.square(7, 2), Position.square(7, 3)), moves.get(0).move);
+        assertEquals(2, moves.get(0).games);
+        assertEquals(1, moves.get(0).redWins);
+        assertEquals(1, moves.get(0).blueWins);
+        pos.make(Position.square(7, 2), Position.square(7, 3));
+        moves = book.lookup(pos);
+        assertEquals(1, moves.size());
+        assertEquals(MoveGenerator.move(Position.square(3, 6), Position.square(4, 6)), moves.get(0).move);
+
+        Engine engine = new Engine(4, 0);
+        engine.setBook(book);
+        assertEquals(moves.get(0).move, engine.search(pos));
+        assertTrue(engine.isBookMove());
+        pos.make(Position.square(3, 6), Position.square(4, 6));
+        engine.search(pos);
+        assertFalse(engine.isBookMove());
+        book.close();
+
+        // A game kept only as .brecord is read; one kept in both forms is read once
+        Files.write(dir.resolve("game_log_5.brecord"), BinaryRecord.encode(Arrays.asList("start i j", "move C7 D7", "i (Red) wins by entering Blue's den!")));
+        Files.write(dir.resolve("game_log_2.brecord"), BinaryRecord.encodeText(Files.readAllBytes(dir.resolve("game_log_2.record"))));
+        assertEquals(5, OpeningBook.build(dir, 8, file));
+        book = OpeningBook.open(file);
+        moves = book.lookup(new Position(chess.getPosition()));
+        assertEquals(3, moves.get(0).games);
+        assertEquals(2, moves.get(0).redWins);
+        book.close();
+
+        // Packed games are read from the archive once their records are gone, and only then
+        assertEquals(5, GameArchive.pack(dir, dir.resolve(GameArchive.FILE_NAME)));
+        Files.delete(dir.resolve("game_log_5.brecord"));
+        assertEquals(5, OpeningBook.build(dir, 8, file));
+        book = OpeningBook.open(file);
+        assertEquals(3, book.lookup(new Position(chess.getPosition())).get(0).games);
+        book.close();
+        for (String name : new String[] {"game_log_1.record", "game_log_2.record", "game_log_3.record", "game_log_4.record",
+                "game_log_2.brecord", GameArchive.FILE_NAME, "book.jbk"}) {
+            Files.deleteIfExists(dir.resolve(name));
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    // Evaluation: the piece-square sum follows moves, captures and undo, and weights load from a file
+    // pass
+    @Test
+    public void test_evaluation() throws IOException {
+        Position pos = chess.getPosition();
+        assertEquals(0, pos.getPieceSquareScore()); // the setup is symmetric
+        chess.movePiece(7, 6, 6, 6); // Red rat moves
+        chess.movePiece(3, 6, 4, 6); // Blue elephant moves
+        chess.movePiece(6, 6, 5, 6); // Red rat moves
+        assertEquals(Evaluation.DEFAULT.evaluate(pos), pos.getPieceSquareScore());
+        chess.movePiece(3, 0, 4, 0); // Blue rat moves
+        chess.movePiece(5, 6, 4, 6); // Red rat captures blue elephant
+        assertEquals(Evaluation.DEFAULT.evaluate(pos), pos.getPieceSquareScore());
+        assertTrue(pos.getPieceSquareScore() > 900);
+        chess.undo();
+        assertEquals(Evaluation.DEFAULT.evaluate(pos), pos.getPieceSquareScore());
+
+        Path file = Files.createTempFile("eval", ".weights");
+        Files.writeString(file, "# test weights\nelephant = 2000\nden_step=0\ntrap_percent = 50 # half\n");
+        Evaluation eval = Evaluation.load(file);
+        assertEquals(2000, eval.materialOf(8));
+        assertEquals(200, eval.materialOf(2));
+        assertEquals(2000, eval.score(Position.code(Position.RED, 8), Position.square(5, 3)));
+        assertEquals(-1000, eval.score(Position.code(Position.BLUE, 8), Position.square(9, 2))); // on a red trap
+        Position copy = new Position(pos);
+        copy.setEvaluation(eval);
+        assertEquals(eval.evaluate(copy), copy.getPieceSquareScore());
+        Files.writeString(file, "queen = 9\n");
+        try {
+            Evaluation.load(file);
+            fail("unknown weight accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("line 1"));
+        }
+        Files.deleteIfExists(file);
+    }
+
+    // Tournament: colours alternate per opening, one output line per game, Elo arithmetic
+    // pass
+    @Test
+    public void test_tournament() throws IOException {
+        Path dir = Files.createTempDirectory("tournament");
+        Path suite = dir.resolve("openings.txt");
+        Files.writeString(suite, "# two openings\nC7 D7 C3 D3\nE7 D7\n");
+        java.util.List<int[]> openings = Tournament.loadOpenings(suite);
+        assertEquals(2, openings.size());
+        assertEquals(2, openings.get(0).length);
+
+        Tournament match = new Tournament(4, 2, openings);
+        match.setDepth(2);
+        match.setMaxPlies(40);
+        match.setOutput(dir.resolve("games.txt"));
+        Path records = dir.resolve("records");
+        Files.createDirectories(records);
+        Files.writeString(records.resolve("game_log_1.record"), "start Simon Thaddeus\n");
+        match.setRecordDir(records);
+        match.run();
+        assertEquals(4, match.getWinsA() + match.getDraws() + match.getLossesA());
+        java.util.List<String> lines = Files.readAllLines(dir.resolve("games.txt"));
+        assertEquals(4, lines.size());
+        for (String line : lines) {
+            assertTrue(line.contains(line.startsWith("game 1 ") || line.startsWith("game 3 ") ? "red A" : "red B"));
+            assertTrue(line.contains(line.startsWith("game 1 ") || line.startsWith("game 2 ") ? "moves C7 D7 C3 D3" : "moves E7 D7"));
+        }
+        // Records take the next free numbers and leave the existing game log alone
+        assertEquals("start Simon Thaddeus\n", Files.readString(records.resolve("game_log_1.record")));
+        for (int i = 2; i <= 5; i++) assertTrue(Files.readString(records.resolve("game_log_" + i + ".record")).matches("(?s)start (A B|B A)\\R.*"));
+        assertFalse(Files.exists(records.resolve("game_log_6.record")));
+        assertFalse(outContent.toString().contains("move C7 D7")); // nothing printed per move
+
+        Files.writeString(suite, "C7 D7 C7 D7\n");
+        try {
+            Tournament.loadOpenings(suite);
+            fail("illegal opening accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("line 1"));
+        }
+        assertEquals(0, Tournament.elo(0.5), 1e-9);
+        assertEquals(190.85, Tournament.elo(0.75), 0.01);
+        assertTrue(Tournament.eloError(30, 40, 30) > Tournament.eloError(300, 400, 300));
+        assertEquals(576, Tournament.defaultOpenings().size()); // perft(2)
+
+        try (java.util.stream.Stream<Path> files = Files.list(records)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(records);
+        Files.deleteIfExists(dir.resolve("games.txt"));
+        Files.deleteIfExists(suite);
+        Files.deleteIfExists(dir);
+    }
+
+    // TranspositionTable: round trip, key check, depth-preferred and always-replace slots
+    // pass
+    @Test
+    public void test_transposition_table() {
+        TranspositionTable table = new TranspositionTable(1);
+        long key = chess.getPositionHash();
+        int move = MoveGenerator.move(Position.square(7, 0), Position.square(6, 0));
+        assertEquals(TranspositionTable.MISS, table.probe(key));
+        table.store(key, 5, TranspositionTable.LOWER, -1234, move);
+        long data = table.probe(key);
+        assertEquals(5, TranspositionTable.depthOf(data));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.boundOf(data));
+        assertEquals(-1234, TranspositionTable.scoreOf(data));
+        assertEquals(move, TranspositionTable.moveOf(data));
+        assertEquals(TranspositionTable.MISS, table.probe(key ^ 1L << 40)); // same bucket, other key
+
+        // A shallower entry for a colliding key goes to the second slot and keeps the deep one
+        long other = key ^ 1L << 40;
+        table.store(other, 2, TranspositionTable.EXACT, 7, 0);
+        assertEquals(5, TranspositionTable.depthOf(table.probe(key)));
+        assertEquals(7, TranspositionTable.scoreOf(table.probe(other)));
+        // Re-storing without a move keeps the known best move
+        table.store(key, 6, TranspositionTable.EXACT, 0, 0);
+        assertEquals(move, TranspositionTable.moveOf(table.probe(key)));
+        table.clear();
+        assertEquals(TranspositionTable.MISS, table.probe(key));
+    }
+
+    // GameLogWriter: lines are queued, written by flush() or the batch limit, and refused after close()
+    // pass
+    @Test
+    public void test_game_log_writer() throws IOException {
+        Path file = Paths.get("game_log_writer_test.record");
+        GameLogWriter writer = new GameLogWriter(file);
+        assertTrue(Files.exists(file));
+        writer.log("start A B");
+        writer.log("move C7 D7");
+        writer.flush();
+        assertEquals(Arrays.asList("start A B", "move C7 D7"), Files.readAllLines(file));
+        for (int i = 0; i < GameLogWriter.BATCH_LINES * 3; i++) writer.log("undo");
+        writer.close();
+        assertEquals(2 + GameLogWriter.BATCH_LINES * 3, Files.readAllLines(file).size());
+        assertThrows(IOException.class, () -> writer.log("undo"));
+        writer.close(); // closing twice is harmless
+        Files.deleteIfExists(file);
+
+        // Chess keeps its record open and writes it on flush()
+        Path recordDir = Paths.get("record");
+        Files.createDirectories(recordDir);
+        Chess game = new Chess();
+        int num = game.getNextLogNumber(recordDir.toFile(), ".record");
+        game.GameSetUp(false);
+        assertEquals(MoveResult.OK, game.tryMove(7, 0, 6, 0));
+        game.flush();
+        Path record = recordDir.resolve("game_log_" + num + ".record");
+        java.util.List<String> lines = Files.readAllLines(record);
+        assertTrue(lines.get(0).startsWith("start "));
+        assertEquals("move A7 A6", lines.get(1));
+        game.close();
+        Files.deleteIfExists(record);
+    }
+
+    // FileNumberAllocator: consecutive numbers from the counter, files added behind its back are
+    // noticed, and concurrent allocations never share a number
+    // pass
+    @Test
+    public void test_file_number_allocator() throws Exception {
+        Path dir = Files.createTempDirectory("allocator");
+        assertEquals(1, FileNumberAllocator.peek(dir, "game_log_", ".record"));
+        assertEquals(1, FileNumberAllocator.allocate(dir, "game_log_", ".record"));
+        assertEquals(2, FileNumberAllocator.allocate(dir, "game_log_", ".record"));
+        assertTrue(Files.exists(dir.resolve("game_log_2.record")));
+        assertEquals(3, FileNumberAllocator.peek(dir, "game_log_", ".record"));
+        assertEquals(3, FileNumberAllocator.peek(dir, "game_log_", ".record")); // peeking claims nothing
+        assertEquals(1, FileNumberAllocator.peek(dir, "game_save_", ".jungle")); // separate counter
+        Files.writeString(dir.resolve("game_log_50.record"), "start a b\n");
+        assertEquals(51, FileNumberAllocator.allocate(dir, "game_log_", ".record"));
+
+        java.util.Set<Integer> numbers = java.util.concurrent.ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    try {
+                        numbers.add(FileNumberAllocator.allocate(dir, "game_log_", ".record"));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(100, numbers.size());
+        assertEquals(Integer.valueOf(52), java.util.Collections.min(numbers));
+        assertEquals(Integer.valueOf(151), java.util.Collections.max(numbers));
+
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    // FileNumberAllocator: a record kept only in binary form keeps its number
+    // pass
+    @Test
+    public void test_file_number_allocator_binary() throws IOException {
+        Path dir = Files.createTempDirectory("allocator");
+        Path binary = dir.resolve("game_log_1" + BinaryRecord.EXTENSION);
+        Files.write(binary, BinaryRecord.encode(Arrays.asList("start a b", "move A7 A6")));
+        assertEquals(2, FileNumberAllocator.peek(dir, "game_log_", ".record"));
+        assertEquals(2, FileNumberAllocator.allocate(dir, "game_log_", ".record"));
+        // Encoded behind the counter's back, after the counter was written
+        Files.write(dir.resolve("game_log_3" + BinaryRecord.EXTENSION), Files.readAllBytes(binary));
+        assertEquals(4, FileNumberAllocator.allocate(dir, "game_log_", ".record"));
+        assertFalse(Files.exists(dir.resolve("game_log_1.record")));
+        assertFalse(Files.exists(dir.resolve("game_log_3.record")));
+
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    // BinaryRecord: one byte per move, and both conversions give back the exact input
+    // pass
+    @Test
+    public void test_binary_record() throws IOException {
+        assertEquals(240, BinaryRecord.MOVE_CODES); // 220 steps and 20 river jumps
+        java.util.List<String> lines = Arrays.asList("start Simon Thaddeus", "move C7 D7", "move C3 D3", "undo",
+                "move A3 A4", "move a7 a6", "Simon (Red) wins by entering Blue's den!", "stop", "");
+        byte[] data = BinaryRecord.encode(lines);
+        assertEquals(lines, BinaryRecord.decode(data));
+        assertTrue(data.length < 100);
+
+        // Lion jump across the river is one code; a lowercase move is kept as text
+        int jump = MoveGenerator.move(Position.square(3, 1), Position.square(7, 1));
+        assertTrue(BinaryRecord.moveCode(jump) >= 0);
+        assertEquals(-1, BinaryRecord.moveCode(MoveGenerator.move(Position.square(3, 1), Position.square(5, 1))));
+
+        byte[] text = "start a b\r\nmove C7 D7\r\nmove G3 G4\nundo".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        assertArrayEquals(text, BinaryRecord.decodeText(BinaryRecord.encodeText(text)));
+
+        data[data.length / 2] ^= 1;
+        try {
+            BinaryRecord.decode(data);
+            fail("corruption not detected");
+        } catch (IOException expected) {
+        }
+    }
+
+    // GameArchive: pack a record directory, append to it, read game N through the index and extract it again
+    // pass
+    @Test
+    public void test_game_archive() throws IOException {
+        Path dir = Files.createTempDirectory("archive");
+        Files.writeString(dir.resolve("game_log_2.record"), "start a b\nmove C7 D7\n");
+        Files.writeString(dir.resolve("game_log_10.record"), "start c d\nmove C7 D7\nundo\nd (Blue) wins by capturing all opponent's pieces!\n");
+        Files.write(dir.resolve("game_log_7.brecord"), BinaryRecord.encode(Arrays.asList("start e f", "stop")));
+        Files.writeString(dir.resolve("notes.txt"), "not a record");
+        Path file = dir.resolve("games.jga");
+        assertEquals(3, GameArchive.pack(dir, file));
+        assertEquals(0, GameArchive.pack(dir, file)); // nothing new to pack
+        assertEquals(4, GameArchive.append(file, Arrays.asList(BinaryRecord.encode(Arrays.asList("start g h"))), null));
+
+        try (GameArchive archive = GameArchive.open(file)) {
+            assertEquals(4, archive.size());
+            assertEquals(Arrays.asList("start e f", "stop"), archive.lines(2)); // packed in order of N
+            assertEquals(10, archive.recordNumber(3));
+            assertEquals("d (Blue) wins by capturing all opponent's pieces!", archive.lines(3).get(3));
+            assertEquals(Arrays.asList("start g h"), archive.lines(4));
+            assertEquals(0, archive.recordNumber(4));
+            try {
+                archive.read(5);
+                fail("no game 5");
+            } catch (IOException expected) {
+            }
+        }
+
+        Path out = dir.resolve("out");
+        assertEquals(1, GameArchive.extract(file, out, 3));
+        assertArrayEquals(Files.readAllBytes(dir.resolve("game_log_10.record")), Files.readAllBytes(out.resolve("game_log_10.record")));
+        try {
+            GameArchive.extract(file, out, 3);
+            fail("existing record overwritten");
+        } catch (java.nio.file.FileAlreadyExistsException expected) {
+        }
+
+        for (Path path : new Path[] {out.resolve("game_log_10.record"), out, file, dir.resolve("notes.txt"),
+                dir.resolve("game_log_7.brecord"), dir.resolve("game_log_10.record"), dir.resolve("game_log_2.record"), dir}) {
+            Files.delete(path);
+        }
+    }
+
+    // RecordReader: typed commands with line numbers from text and binary records, read lazily
+    // pass
+    @Test
+    public void test_record_reader() throws IOException {
+        String text = "start Simon Thaddeus\r\n\r\n# comment\r\nmove C7 D7\r\nmove X\r\nundo\r\n"
+                + "Simon (Red) wins by entering Blue's den!\r\nstop\r\n";
+        byte[] data = text.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        for (byte[] record : new byte[][] {data, BinaryRecord.encodeText(data)}) {
+            try (RecordReader reader = RecordReader.of(record)) {
+                RecordReader.Command start = reader.next();
+                assertTrue(start instanceof RecordReader.Start);
+                assertEquals("Thaddeus", ((RecordReader.Start) start).blue);
+                RecordReader.Command move = reader.next();
+                assertTrue(move instanceof RecordReader.Move);
+                assertEquals(4, move.line); // blank line and comment skipped but counted
+                assertEquals(7, ((RecordReader.Move) move).fromRow);
+                assertEquals(3, ((RecordReader.Move) move).toCol);
+                assertFalse(((RecordReader.Move) reader.next()).wellFormed);
+                assertTrue(reader.next() instanceof RecordReader.Undo);
+                assertTrue(reader.next() instanceof RecordReader.Unknown);
+                RecordReader.Command stop = reader.next();
+                assertTrue(stop instanceof RecordReader.Stop);
+                assertEquals(8, stop.line);
+                assertNull(reader.next());
+                assertNull(reader.next());
+            }
+        }
+
+        // A long concatenated log streams from disk
+        Path file = Files.createTempFile("merged", ".record");
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (int game = 0; game < 20000; game++) out.write("start a b\nmove C7 D7\nmove C3 D3\nundo\nstop\n");
+        }
+        int moves = 0, commands = 0;
+        try (RecordReader reader = RecordReader.open(file)) {
+            for (RecordReader.Command cmd = reader.next(); cmd != null; cmd = reader.next()) {
+                commands++;
+                if (cmd instanceof RecordReader.Move) moves++;
+            }
+        }
+        assertEquals(100000, commands);
+        assertEquals(40000, moves);
+        Files.delete(file);
+    }
+    
 /********************************************************************************
 ************************** Tests for ChessConUI *********************************
 ********************************************************************************/
@@ -724,6 +1534,47 @@ public class ProjectTest {
         Files.deleteIfExists(dir.resolve("game_log_"+filenum+".record"));
     }
 
+    // engine cmd: the computer answers as blue and the game continues
+    // pass
+    @Test
+    public void test_engine_cmd() throws IOException {
+        String input = "start\n\n\nengine blue 50\nmove A7 A6\nengine blue 50 mcts\nmove A6 A5\nsolve\nengine off\nstop\nexit\n";
+        Path dir = Paths.get("record");
+        if (!Files.exists(dir)) Files.createDirectories(dir);
+        int filenum = chess.getNextLogNumber(dir.toFile(), ".record");
+
+        System.setIn(new ByteArrayInputStream(input.getBytes()));
+        ChessConUI.main(new String[0]);
+        String out = outContent.toString();
+
+        assertTrue(out.contains("Engine plays move"));
+        assertTrue(out.contains("  depth 1, score "));
+        assertTrue(out.contains("playouts/s)"));
+        assertTrue(out.contains("Position not in any tablebase."));
+        assertFalse(out.contains("Unknown command."));
+        Files.deleteIfExists(dir.resolve("game_log_"+filenum+".record"));
+    }
+
+    // undo cmd against the engine: the engine's reply and the human's move are both taken back
+    // pass
+    @Test
+    public void test_engine_undo_cmd() throws IOException {
+        String input = "start\n\n\nengine blue 50\nmove A7 A6\nundo\nstop\nexit\n";
+        System.setIn(new ByteArrayInputStream(input.getBytes()));
+        ChessConUI.main(new String[0]);
+        String out = outContent.toString();
+
+        // The engine answers once and does not replay its move after the undo
+        assertEquals(out.indexOf("Engine plays move"), out.lastIndexOf("Engine plays move"));
+        String after = out.substring(out.indexOf("Undo successful."));
+        assertTrue(after.contains("has 2 undos remaining."));
+        assertTrue(after.contains("(Red): 2, "));
+        assertTrue(after.contains("(Blue): 3"));
+        // Red to move again, with the elephant back on A7
+        assertTrue(after.contains("7 R8  . R4"));
+        assertTrue(after.contains("(RED)" + System.lineSeparator() + "Next player"));
+    }
+
     // loadFromFile() cmd
     // pass
     @Test
@@ -798,6 +1649,60 @@ public class ProjectTest {
         Files.deleteIfExists(file); //delete test file
     }
 
+    // loadFromFile() cmd with a binary record
+    // pass
+    @Test
+    public void test_load_from_file_binary() throws IOException {
+        Path recordDir = Paths.get("record");
+        int filenum = chess.getNextLogNumber(recordDir.toFile(), ".record");
+        Files.createDirectories(recordDir);
+        Path file = recordDir.resolve("game_log_"+filenum+".brecord");
+        Files.write(file, BinaryRecord.encode(Arrays.asList("start Simon Thaddeus", "move A7 A6", "stop")));
+
+        String input = "replay\n"+filenum+"\nstep\n\n\n\nexit\n";
+        System.setIn(new ByteArrayInputStream(input.getBytes()));
+        ChessConUI.main(new String[0]);
+
+        String out = outContent.toString();
+        assertTrue(out.contains("Loaded record "+filenum+"."));
+        assertTrue(out.contains("A7 -> A6"));
+        assertTrue(out.contains("Stop command encountered in record."));
+
+        Files.deleteIfExists(file); //delete test file
+    }
+
+    // loadFromFile() cmd with an archive game id
+    // pass
+    @Test
+    public void test_load_from_file_archive() throws IOException {
+        Path archive = Paths.get(GameArchive.DEFAULT_FILE);
+        boolean existed = Files.exists(archive);
+        int id = GameArchive.append(archive, Arrays.asList(BinaryRecord.encode(Arrays.asList("start Simon Thaddeus", "move A7 A6", "stop"))), null);
+
+        String input = "replay\narchive:"+id+"\nstep\n\n\n\nexit\n";
+        System.setIn(new ByteArrayInputStream(input.getBytes()));
+        ChessConUI.main(new String[0]);
+
+        String out = outContent.toString();
+        assertTrue(out.contains("Loaded record archive:"+id+"."));
+        assertTrue(out.contains("A7 -> A6"));
+        assertTrue(out.contains("Stop command encountered in record."));
+
+        if (!existed) Files.deleteIfExists(archive); //delete test archive
+    }
+
+    // loadFromFile() cmd with an archive game id
+    // pass
+    @Test
+    public void test_load_from_file_archive_invalid() throws IOException {
+        String input = "replay\narchive:x\nexit\n";
+        System.setIn(new ByteArrayInputStream(input.getBytes()));
+        ChessConUI.main(new String[0]);
+
+        String out = outContent.toString();
+        assertTrue(out.contains("Failed to read archive: Invalid archive game id: x"));
+    }
+
     // loadFromFile() cmd
     // pass
     @Test
@@ -0,0 +1,155 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// Reads the commands of a game record one at a time, text or binary (see BinaryRecord), so replay
+// can start at once and a record of any size is read in constant memory.
+//
+// Blank lines and "#" comments are skipped; every other line becomes a command carrying its line
+// number and its trimmed text:
+//   Start    "start [red] [blue]"
+//   Move     "move XN YN"; wellFormed is false if the squares could not be read
+//   Undo     "undo"
+//   Stop     "stop"
+//   Unknown  anything else, e.g. a result line
+public class RecordReader implements AutoCloseable {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    public abstract static class Command {
+        public final int line;
+        public final String text;
+
+        Command(int line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+    }
+
+    public static final class Start extends Command {
+        // null when the record leaves the name out
+        public final String red;
+        public final String blue;
+
+        Start(int line, String text, String red, String blue) {
+            super(line, text);
+            this.red = red;
+            this.blue = blue;
+        }
+    }
+
+    public static final class Move extends Command {
+        public final boolean wellFormed;
+        // Square names as written, upper case, e.g. "C7"; null unless wellFormed
+        public final String from, to;
+        public final int fromRow, fromCol, toRow, toCol;
+
+        Move(int line, String text, String from, String to) {
+            super(line, text);
+            this.wellFormed = from != null;
+            this.from = from;
+            this.to = to;
+            this.fromRow = from == null ? -1 : Character.getNumericValue(from.charAt(1));
+            this.fromCol = from == null ? -1 : from.charAt(0) - 'A';
+            this.toRow = to == null ? -1 : Character.getNumericValue(to.charAt(1));
+            this.toCol = to == null ? -1 : to.charAt(0) - 'A';
+        }
+    }
+
+    public static final class Undo extends Command {
+        Undo(int line, String text) {
+            super(line, text);
+        }
+    }
+
+    public static final class Stop extends Command {
+        Stop(int line, String text) {
+            super(line, text);
+        }
+    }
+
+    public static final class Unknown extends Command {
+        Unknown(int line, String text) {
+            super(line, text);
+        }
+    }
+
+    // Exactly one of the two is set
+    private final BufferedReader text;
+    private final BinaryRecord.Decoder binary;
+    private final InputStream in;
+    private int lineNumber;
+
+    private RecordReader(InputStream stream) throws IOException {
+        in = stream.markSupported() ? stream : new BufferedInputStream(stream, BUFFER_BYTES);
+        // The magic number tells the formats apart
+        in.mark(4);
+        byte[] head = in.readNBytes(4);
+        in.reset();
+        if (BinaryRecord.isBinary(head)) {
+            text = null;
+            binary = new BinaryRecord.Decoder(in);
+        } else {
+            // Strict decoding, as Files.readAllLines: malformed UTF-8 is an error rather than replaced
+            text = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()), BUFFER_BYTES);
+            binary = null;
+        }
+    }
+
+    public static RecordReader open(Path file) throws IOException {
+        InputStream stream = Channels.newInputStream(FileChannel.open(file));
+        try {
+            return new RecordReader(stream);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    // A record held in memory, e.g. a game of a GameArchive
+    public static RecordReader of(byte[] data) throws IOException {
+        return new RecordReader(new ByteArrayInputStream(data));
+    }
+
+    // Next command, or null at the end of the record
+    public Command next() throws IOException {
+        while (true) {
+            String raw = binary != null ? binary.nextLine() : text.readLine();
+            if (raw == null) return null;
+            lineNumber++;
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            return parse(lineNumber, line);
+        }
+    }
+
+    static Command parse(int lineNumber, String line) {
+        String lower = line.toLowerCase();
+        if (lower.startsWith("start")) {
+            String[] tok = line.split("\\s+");
+            return new Start(lineNumber, line, tok.length >= 2 ? tok[1] : null, tok.length >= 3 ? tok[2] : null);
+        } else if (lower.startsWith("move ")) {
+            String[] parts = line.substring(5).trim().toUpperCase().split("\\s+");
+            if (parts.length != 2 || parts[0].length() != 2 || parts[1].length() != 2) {
+                return new Move(lineNumber, line, null, null);
+            }
+            return new Move(lineNumber, line, parts[0], parts[1]);
+        } else if (lower.equals("undo")) {
+            return new Undo(lineNumber, line);
+        } else if (lower.equals("stop")) {
+            return new Stop(lineNumber, line);
+        }
+        return new Unknown(lineNumber, line);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
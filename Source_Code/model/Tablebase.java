@@ -0,0 +1,386 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Endgame tablebase for a fixed set of pieces, e.g. "17v8" = red rat and lion against the blue elephant.
+// Every placement of the set (pieces may also be captured, so smaller sets are included) is solved
+// by retrograde analysis into a distance to the end of the game in plies, stored one byte per position
+// in tablebase/<set>.jtb and read back through a memory-mapped FileChannel in O(1).
+//
+// Index: side to move + 2 * sum(square_i * 64^i), where square_i is the playable square of piece i
+// (0-62, row 1 upwards) or 63 if the piece is captured.
+// Value byte: 0 = draw or unresolved, 255 = unreachable, otherwise plies = value - 1; an even number
+// of plies is a loss for the side to move, an odd number a win. As in the engine, a side without a
+// legal move loses.
+//
+// Generation runs one sweep per ply over the whole table on several threads and writes straight into
+// the mapped file. The last finished sweep is kept in the header, so an interrupted run resumes there.
+//
+// Usage: java Tablebase <redRanks>v<blueRanks> [threads]    e.g. java Tablebase 17v8 8
+public class Tablebase {
+    public static final int MAX_PIECES = 5;
+    public static final int DRAW = 0;
+    public static final int UNREACHABLE = 255;
+    static final int MAX_PLIES = 253;
+    static final String DIRECTORY = "tablebase";
+    static final String EXTENSION = ".jtb";
+
+    // Header: magic, piece count, piece codes, complete flag, padding, last finished sweep
+    private static final int MAGIC = 0x4A544231; // "JTB1"
+    private static final int HEADER_BYTES = 16;
+    private static final int CHUNK_SHIFT = 30;
+    private static final int CAPTURED = 63;
+
+    private final int[] codes;
+    private final long size;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] chunks;
+
+    private Tablebase(int[] codes, FileChannel channel, boolean writable) throws IOException {
+        this.codes = codes;
+        this.channel = channel;
+        this.size = 2L << (6 * codes.length);
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        header = channel.map(mode, 0, HEADER_BYTES);
+        long chunkBytes = Math.min(size, 1L << CHUNK_SHIFT);
+        chunks = new MappedByteBuffer[(int) ((size + chunkBytes - 1) / chunkBytes)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = channel.map(mode, HEADER_BYTES + i * chunkBytes, Math.min(chunkBytes, size - i * chunkBytes));
+        }
+    }
+
+    // Open an existing table for lookups
+    public static Tablebase open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file);
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(head, 0);
+        head.flip();
+        if (head.limit() < HEADER_BYTES || head.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Not a tablebase file: " + file);
+        }
+        int count = head.get(4);
+        if (count < 2 || count > MAX_PIECES) {
+            channel.close();
+            throw new IOException("Bad piece count in tablebase: " + file);
+        }
+        int[] codes = new int[count];
+        for (int i = 0; i < codes.length; i++) codes[i] = head.get(5 + i);
+        if (head.get(10) != 1) {
+            channel.close();
+            throw new IOException("Tablebase generation not finished: " + file);
+        }
+        return new Tablebase(codes, channel, false);
+    }
+
+    // Every finished table in dir; missing directory or unfinished files are skipped
+    public static List<Tablebase> openAll(Path dir) {
+        List<Tablebase> tables = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return tables;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+            for (Path file : files) {
+                try {
+                    tables.add(open(file));
+                } catch (IOException e) {
+                    System.err.println("Skipping tablebase " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read tablebase directory: " + e.getMessage());
+        }
+        return tables;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Piece codes of a set name such as "17v8" (red ranks, 'v', blue ranks)
+    public static int[] parseSet(String name) {
+        int v = name.toLowerCase().indexOf('v');
+        if (v < 0) throw new IllegalArgumentException("Expected <redRanks>v<blueRanks>, e.g. 17v8");
+        int count = name.length() - 1;
+        if (count < 2 || count > MAX_PIECES) throw new IllegalArgumentException("A tablebase has 2 to " + MAX_PIECES + " pieces");
+        int[] codes = new int[count];
+        int n = 0;
+        for (int i = 0; i < name.length(); i++) {
+            if (i == v) continue;
+            int rank = name.charAt(i) - '0';
+            if (rank < 1 || rank > 8) throw new IllegalArgumentException("Rank must be 1-8: " + name.charAt(i));
+            int code = Position.code(i < v ? Position.RED : Position.BLUE, rank);
+            for (int j = 0; j < n; j++) {
+                if (codes[j] == code) throw new IllegalArgumentException("Duplicate piece: " + name.charAt(i));
+            }
+            codes[n++] = code;
+        }
+        if (v == 0 || v == name.length() - 1) throw new IllegalArgumentException("Each side needs at least one piece");
+        return codes;
+    }
+
+    public static String setName(int[] codes) {
+        StringBuilder red = new StringBuilder(), blue = new StringBuilder();
+        for (int code : codes) (Position.sideOf(code) == Position.RED ? red : blue).append(Position.rankOf(code));
+        return red + "v" + blue;
+    }
+
+    public String getName() {
+        return setName(codes);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // Index of pos in this table, or -1 if pos has a piece outside the set
+    public long indexOf(Position pos) {
+        int pieces = pos.count(Position.RED) + pos.count(Position.BLUE);
+        long index = 0;
+        for (int i = codes.length - 1; i >= 0; i--) {
+            int sq = pos.pieceSquare[codes[i]];
+            if (sq >= 0) pieces--;
+            index = index << 6 | (sq < 0 ? CAPTURED : sq - Position.COLS);
+        }
+        return pieces == 0 ? index << 1 | pos.sideToMove : -1;
+    }
+
+    // Value byte for pos, or -1 if pos is not covered by this table
+    public int probe(Position pos) {
+        long index = indexOf(pos);
+        return index < 0 ? -1 : get(index);
+    }
+
+    // First table in tables that covers pos, or null
+    public static Tablebase find(List<Tablebase> tables, Position pos) {
+        int pieces = pos.count(Position.RED) + pos.count(Position.BLUE);
+        if (pieces > MAX_PIECES) return null;
+        for (Tablebase table : tables) {
+            if (pieces <= table.codes.length && table.indexOf(pos) >= 0) return table;
+        }
+        return null;
+    }
+
+    // Best move by the table: fastest win, slowest loss, otherwise a drawing move; -1 if not covered
+    public int bestMove(Position pos) {
+        if (indexOf(pos) < 0) return -1;
+        Position p = new Position(pos);
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int n = MoveGenerator.generateLegalMoves(p, moves);
+        int best = -1, bestRank = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int delta = p.make(MoveGenerator.from(moves[i]), MoveGenerator.to(moves[i]));
+            int value = get(indexOf(p));
+            p.unmake(delta);
+            // Rank from the mover's view: child loss (our win) best, sooner first; then draw; then child win, later first
+            int rank = value == DRAW ? 0 : isWin(value) ? -1000 + plies(value) : 1000 - plies(value);
+            if (rank > bestRank) {
+                bestRank = rank;
+                best = moves[i];
+            }
+        }
+        return best;
+    }
+
+    public static boolean isWin(int value) {
+        return value != DRAW && value != UNREACHABLE && (value - 1 & 1) == 1;
+    }
+
+    public static boolean isLoss(int value) {
+        return value != DRAW && value != UNREACHABLE && (value - 1 & 1) == 0;
+    }
+
+    public static int plies(int value) {
+        return value - 1;
+    }
+
+    int get(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & ((1L << CHUNK_SHIFT) - 1))) & 0xFF;
+    }
+
+    private void set(long index, int value) {
+        chunks[(int) (index >>> CHUNK_SHIFT)].put((int) (index & ((1L << CHUNK_SHIFT) - 1)), (byte) value);
+    }
+
+    // Fill pos from index; false if two pieces share a square
+    private boolean decode(long index, Position pos) {
+        pos.clear();
+        long squares = index >>> 1;
+        for (int i = 0; i < codes.length; i++, squares >>>= 6) {
+            int p = (int) (squares & 63);
+            if (p == CAPTURED) continue;
+            int sq = p + Position.COLS;
+            if (pos.mailbox[sq] != Position.EMPTY) return false;
+            pos.put(sq, codes[i]);
+        }
+        pos.setSideToMove((int) (index & 1));
+        return true;
+    }
+
+    // Generate the table for codes into file, resuming if the file holds an unfinished run
+    public static Tablebase generate(int[] codes, Path file, int threads) throws IOException {
+        return generate(codes, file, threads, Integer.MAX_VALUE);
+    }
+
+    // As generate, but stop after maxSweeps sweeps in this run (used to test resuming)
+    static Tablebase generate(int[] codes, Path file, int threads, int maxSweeps) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        long size = 2L << (6 * codes.length);
+        FileChannel channel = new RandomAccessFile(file.toFile(), "rw").getChannel();
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(head, 0);
+        boolean resume = channel.size() == HEADER_BYTES + size && head.getInt(0) == MAGIC && head.get(4) == codes.length;
+        for (int i = 0; resume && i < codes.length; i++) resume = head.get(5 + i) == codes[i];
+        // Anything else in the file is thrown away; mapping the empty file fills it with zeros (DRAW)
+        if (!resume) channel.truncate(0);
+        Tablebase table = new Tablebase(codes, channel, true);
+        int sweep = -1;
+        if (resume) {
+            if (head.get(10) == 1) return table;
+            sweep = head.getInt(12);
+        } else {
+            table.header.putInt(0, MAGIC);
+            table.header.put(4, (byte) codes.length);
+            for (int i = 0; i < codes.length; i++) table.header.put(5 + i, (byte) codes[i]);
+            table.header.put(10, (byte) 0);
+            table.header.putInt(12, -1);
+        }
+
+        int ran = 0;
+        while (ran++ < maxSweeps) {
+            sweep++;
+            long found = table.sweep(sweep, threads);
+            table.checkpoint(sweep, false);
+            // A sweep that resolves nothing means no later sweep can either
+            if (found == 0 && sweep > 0 || sweep == MAX_PLIES) {
+                table.checkpoint(sweep, true);
+                break;
+            }
+        }
+        return table;
+    }
+
+    private void checkpoint(int sweep, boolean complete) {
+        for (MappedByteBuffer chunk : chunks) chunk.force();
+        header.putInt(12, sweep);
+        header.put(10, (byte) (complete ? 1 : 0));
+        header.force();
+    }
+
+    // Sweep 0 marks unreachable and lost positions; sweep k resolves every position that ends in
+    // exactly k plies. Returns the number of positions at k plies (including ones written by an
+    // interrupted earlier run of the same sweep).
+    private long sweep(int k, int threads) {
+        AtomicLong nextBlock = new AtomicLong();
+        AtomicLong found = new AtomicLong();
+        long blockSize = 1 << 14;
+        Runnable worker = () -> {
+            Position pos = new Position();
+            int[] moves = new int[MoveGenerator.MAX_MOVES];
+            long count = 0;
+            long start;
+            while ((start = nextBlock.getAndAdd(blockSize)) < size) {
+                long end = Math.min(size, start + blockSize);
+                for (long index = start; index < end; index++) {
+                    int value = get(index);
+                    if (value == k + 1 && k > 0) {
+                        count++;
+                        continue;
+                    }
+                    if (value != DRAW) continue;
+                    int solved = k == 0 ? classify(index, pos, moves) : solve(index, k, pos, moves);
+                    if (solved != DRAW) {
+                        set(index, solved);
+                        if (solved == k + 1) count++;
+                    }
+                }
+            }
+            found.addAndGet(count);
+        };
+        Thread[] helpers = new Thread[Math.max(1, threads) - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new Thread(worker, "tablebase-" + (i + 1));
+            helpers[i].start();
+        }
+        worker.run();
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return found.get();
+    }
+
+    // Sweep 0: UNREACHABLE, lost now (value 1), or still open
+    private int classify(long index, Position pos, int[] moves) {
+        if (!decode(index, pos)) return UNREACHABLE;
+        int side = pos.sideToMove, enemy = 1 - side;
+        int ownDen = side == Position.RED ? Position.RED_DEN : Position.BLUE_DEN;
+        int enemyDen = side == Position.RED ? Position.BLUE_DEN : Position.RED_DEN;
+        boolean lost = pos.count(side) == 0
+                || (pos.mailbox[ownDen] != Position.EMPTY && Position.sideOf(pos.mailbox[ownDen]) == enemy);
+        boolean won = pos.count(enemy) == 0
+                || (pos.mailbox[enemyDen] != Position.EMPTY && Position.sideOf(pos.mailbox[enemyDen]) == side);
+        // The side to move cannot have won already: the game would have ended on its own move
+        if (won) return UNREACHABLE;
+        if (lost || MoveGenerator.generateLegalMoves(pos, moves) == 0) return 1;
+        return DRAW;
+    }
+
+    // Sweep k > 0: only children finished before this sweep are trusted, so values written
+    // concurrently in this sweep (all k plies) are never read as final
+    private int solve(long index, int k, Position pos, int[] moves) {
+        decode(index, pos);
+        int n = MoveGenerator.generateLegalMoves(pos, moves);
+        boolean allLose = true;
+        for (int i = 0; i < n; i++) {
+            int delta = pos.make(MoveGenerator.from(moves[i]), MoveGenerator.to(moves[i]));
+            int child = get(indexOf(pos));
+            pos.unmake(delta);
+            boolean childDone = child != DRAW && child != UNREACHABLE && plies(child) < k;
+            if (childDone && isLoss(child) && plies(child) == k - 1) return k + 1; // win in k
+            if (!childDone || !isWin(child)) allLose = false;
+        }
+        return allLose ? k + 1 : DRAW; // every move lets the opponent win; the slowest takes k plies
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java Tablebase <redRanks>v<blueRanks> [threads]    e.g. java Tablebase 17v8 8");
+            return;
+        }
+        int[] codes;
+        try {
+            codes = parseSet(args[0]);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path file = Paths.get(DIRECTORY, setName(codes) + EXTENSION);
+        long start = System.nanoTime();
+        Tablebase table = generate(codes, file, threads);
+        long[] counts = new long[3];
+        int longest = 0;
+        for (long i = 0; i < table.size; i++) {
+            int value = table.get(i);
+            if (isWin(value)) counts[0]++;
+            else if (isLoss(value)) counts[1]++;
+            else if (value == DRAW) counts[2]++;
+            if (value != DRAW && value != UNREACHABLE) longest = Math.max(longest, plies(value));
+        }
+        System.out.printf("%s: %d positions, %d wins, %d losses, %d draws, longest %d plies, %.1f s%n",
+                file, table.size, counts[0], counts[1], counts[2], longest, (System.nanoTime() - start) / 1e9);
+        table.close();
+    }
+}
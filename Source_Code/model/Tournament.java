@@ -0,0 +1,371 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Headless engine-vs-engine match between two engine configurations, A and B, on all cores.
+// Every opening of the suite is played twice with colours swapped. Games are played on Position
+// through the silent rules; nothing is printed per move and no record/ file is written unless asked.
+// Records take the next free game_log_N numbers of their directory (see FileNumberAllocator), so
+// -records record adds to the game logs there and never overwrites one.
+// Each finished game is one line of the output file, written through one shared buffer.
+//
+// A game ends at the den or the last capture, as in Chess, or is adjudicated: a win once one
+// side's search has been at least adjudicateScore ahead for adjudicatePlies plies in a row, a draw
+// at maxPlies.
+//
+// Usage: java Tournament [-games N] [-threads N] [-depth D] [-time ms] [-hash MB] [-openings file]
+//        [-evalA file] [-evalB file] [-out file] [-records dir] [-maxPlies N] [-adjudicate score plies]
+public class Tournament {
+    static final int RESULT_RED = 1, RESULT_DRAW = 0, RESULT_BLUE = -1;
+
+    private final int games;
+    private final int threads;
+    private final List<int[]> openings;
+    private int depth = 4;
+    private long timeMillis = 0;
+    private long hashMegabytes = 8;
+    private Evaluation evalA = Evaluation.DEFAULT;
+    private Evaluation evalB = Evaluation.DEFAULT;
+    private int maxPlies = 300;
+    private int adjudicateScore = 1500;
+    private int adjudicatePlies = 8;
+    private Path output;
+    private Path recordDir;
+
+    // Results from A's point of view
+    private int winsA, draws, lossesA;
+    private final AtomicInteger played = new AtomicInteger();
+
+    public Tournament(int games, int threads, List<int[]> openings) {
+        this.games = games;
+        this.threads = Math.max(1, threads);
+        this.openings = openings.isEmpty() ? defaultOpenings() : openings;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public void setTimeMillis(long timeMillis) {
+        this.timeMillis = timeMillis;
+    }
+
+    public void setHashMegabytes(long hashMegabytes) {
+        this.hashMegabytes = hashMegabytes;
+    }
+
+    public void setEvaluations(Evaluation evalA, Evaluation evalB) {
+        this.evalA = evalA;
+        this.evalB = evalB;
+    }
+
+    public void setMaxPlies(int maxPlies) {
+        this.maxPlies = maxPlies;
+    }
+
+    public void setAdjudication(int score, int plies) {
+        this.adjudicateScore = score;
+        this.adjudicatePlies = plies;
+    }
+
+    // One line per game is written here (null: no game file)
+    public void setOutput(Path output) {
+        this.output = output;
+    }
+
+    // Write a game_log_N.record file per game into dir (null: none)
+    public void setRecordDir(Path recordDir) {
+        this.recordDir = recordDir;
+    }
+
+    public int getWinsA() {
+        return winsA;
+    }
+
+    public int getDraws() {
+        return draws;
+    }
+
+    public int getLossesA() {
+        return lossesA;
+    }
+
+    // Every two-ply start: each of red's first moves with each of blue's replies
+    static List<int[]> defaultOpenings() {
+        Position start = startPosition();
+        List<int[]> openings = new ArrayList<>();
+        int[] first = new int[MoveGenerator.MAX_MOVES], second = new int[MoveGenerator.MAX_MOVES];
+        int n = MoveGenerator.generateLegalMoves(start, first);
+        for (int i = 0; i < n; i++) {
+            int delta = start.make(MoveGenerator.from(first[i]), MoveGenerator.to(first[i]));
+            int m = MoveGenerator.generateLegalMoves(start, second);
+            for (int j = 0; j < m; j++) openings.add(new int[] {first[i], second[j]});
+            start.unmake(delta);
+        }
+        return openings;
+    }
+
+    // Opening suite: one opening per line as moves in record notation, e.g. "C7 D7 C3 D3"; "#" comments
+    static List<int[]> loadOpenings(Path file) throws IOException {
+        List<int[]> openings = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file)) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim().toUpperCase();
+            if (line.isEmpty()) continue;
+            String[] squares = line.split("\\s+");
+            if (squares.length % 2 != 0) throw new IOException("Odd number of squares at line " + lineNumber);
+            Position pos = startPosition();
+            int[] moves = new int[squares.length / 2];
+            for (int i = 0; i < moves.length; i++) {
+                int from = parseSquare(squares[2 * i]), to = parseSquare(squares[2 * i + 1]);
+                if (from < 0 || to < 0 || MoveGenerator.validate(pos, from, to) != MoveResult.OK || pos.isGameOver()) {
+                    throw new IOException("Illegal opening move " + squares[2 * i] + " " + squares[2 * i + 1] + " at line " + lineNumber);
+                }
+                pos.make(from, to);
+                moves[i] = MoveGenerator.move(from, to);
+            }
+            openings.add(moves);
+        }
+        return openings;
+    }
+
+    private static int parseSquare(String name) {
+        if (name.length() != 2) return -1;
+        int col = name.charAt(0) - 'A', row = name.charAt(1) - '0';
+        if (col < 0 || col >= Position.COLS || row < 0 || row >= Position.ROWS) return -1;
+        return Position.square(row, col);
+    }
+
+    private static Position startPosition() {
+        Chess chess = new Chess();
+        try {
+            chess.GameSetUp(true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Position(chess.getPosition());
+    }
+
+    public void run() throws IOException {
+        Position start = startPosition();
+        BufferedWriter out = output == null ? null : Files.newBufferedWriter(output);
+        if (recordDir != null) Files.createDirectories(recordDir);
+        AtomicInteger next = new AtomicInteger();
+        IOException[] failure = new IOException[1];
+        Runnable worker = () -> {
+            Engine a = new Engine(depth, timeMillis, new TranspositionTable(hashMegabytes));
+            Engine b = new Engine(depth, timeMillis, new TranspositionTable(hashMegabytes));
+            a.setEvaluation(evalA);
+            b.setEvaluation(evalB);
+            StringBuilder moves = new StringBuilder();
+            int game;
+            while ((game = next.getAndIncrement()) < games) {
+                // Games 2k and 2k+1 share an opening; A is red in the even one
+                int[] opening = openings.get(game / 2 % openings.size());
+                boolean aIsRed = game % 2 == 0;
+                moves.setLength(0);
+                String[] reason = new String[1];
+                int result = playGame(new Position(start), opening, aIsRed ? a : b, aIsRed ? b : a, moves, reason);
+                int resultA = aIsRed ? result : -result;
+                String line = "game " + (game + 1) + " opening " + (game / 2 % openings.size() + 1)
+                        + " red " + (aIsRed ? "A" : "B") + " result " + (result == RESULT_RED ? "1-0" : result == RESULT_BLUE ? "0-1" : "1/2-1/2")
+                        + " " + reason[0] + " moves" + moves;
+                try {
+                    record(game, resultA, line, out);
+                    if (recordDir != null) writeRecord(game, aIsRed, result, reason[0], moves);
+                } catch (IOException e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                    return;
+                }
+            }
+        };
+        long startTime = System.nanoTime();
+        Thread[] helpers = new Thread[threads - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new Thread(worker, "tournament-" + (i + 1));
+            helpers[i].start();
+        }
+        worker.run();
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (out != null) out.close();
+        if (failure[0] != null) throw failure[0];
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("Finished %d games in %.1f s (%.1f games/s)%n", played.get(), seconds, played.get() / seconds);
+        System.out.println(summary());
+    }
+
+    // Count a result and append its line; progress is printed every 1% of the games
+    private synchronized void record(int game, int resultA, String line, BufferedWriter out) throws IOException {
+        if (resultA > 0) winsA++;
+        else if (resultA < 0) lossesA++;
+        else draws++;
+        if (out != null) {
+            out.write(line);
+            out.newLine();
+        }
+        int done = played.incrementAndGet();
+        if (games >= 100 && done % (games / 100) == 0) System.out.println(done + "/" + games + "  " + summary());
+    }
+
+    private void writeRecord(int game, boolean aIsRed, int result, String reason, StringBuilder moves) throws IOException {
+        StringBuilder text = new StringBuilder("start " + (aIsRed ? "A B" : "B A") + System.lineSeparator());
+        String[] squares = moves.toString().trim().split(" ");
+        for (int i = 0; i + 1 < squares.length; i += 2) {
+            text.append("move ").append(squares[i]).append(' ').append(squares[i + 1]).append(System.lineSeparator());
+        }
+        if (result != RESULT_DRAW) {
+            // Same wording as Chess.checkWinCondition(), so the records replay and feed OpeningBook
+            String winner = ((result == RESULT_RED) == aIsRed ? "A" : "B") + (result == RESULT_RED ? " (Red)" : " (Blue)");
+            String how = reason.equals("den") ? (result == RESULT_RED ? "entering Blue's den!" : "entering Red's den!")
+                    : reason.equals("capture") ? "capturing all opponent's pieces!" : reason;
+            text.append(winner).append(" wins by ").append(how).append(System.lineSeparator());
+        }
+        int number = FileNumberAllocator.allocate(recordDir, "game_log_", BinaryRecord.TEXT_EXTENSION);
+        // The claimed file is created empty; it is ours to fill
+        Files.writeString(recordDir.resolve("game_log_" + number + BinaryRecord.TEXT_EXTENSION), text.toString(),
+                StandardOpenOption.WRITE);
+    }
+
+    // Play one game from start after the opening; returns RESULT_RED, RESULT_DRAW or RESULT_BLUE
+    // and sets reason[0]. Moves are appended to moves in record notation.
+    int playGame(Position pos, int[] opening, Engine red, Engine blue, StringBuilder moves, String[] reason) {
+        for (int move : opening) {
+            pos.make(MoveGenerator.from(move), MoveGenerator.to(move));
+            moves.append(' ').append(Perft.moveName(move));
+        }
+        int aheadSign = 0, aheadPlies = 0;
+        for (int ply = opening.length; ply < maxPlies; ply++) {
+            if (pos.isGameOver()) {
+                reason[0] = pos.count(pos.getSideToMove()) == 0 ? "capture" : "den";
+                return pos.getSideToMove() == Position.RED ? RESULT_BLUE : RESULT_RED;
+            }
+            Engine engine = pos.getSideToMove() == Position.RED ? red : blue;
+            int move = engine.search(pos);
+            if (move < 0) {
+                reason[0] = "no_moves";
+                return pos.getSideToMove() == Position.RED ? RESULT_BLUE : RESULT_RED;
+            }
+            // Score adjudication from red's point of view
+            int score = pos.getSideToMove() == Position.RED ? engine.getBestScore() : -engine.getBestScore();
+            int sign = score >= adjudicateScore ? 1 : score <= -adjudicateScore ? -1 : 0;
+            aheadPlies = sign != 0 && sign == aheadSign ? aheadPlies + 1 : (sign != 0 ? 1 : 0);
+            aheadSign = sign;
+            if (adjudicatePlies > 0 && aheadPlies >= adjudicatePlies) {
+                reason[0] = "adjudication";
+                return sign > 0 ? RESULT_RED : RESULT_BLUE;
+            }
+            pos.make(MoveGenerator.from(move), MoveGenerator.to(move));
+            moves.append(' ').append(Perft.moveName(move));
+        }
+        if (pos.isGameOver()) {
+            reason[0] = pos.count(pos.getSideToMove()) == 0 ? "capture" : "den";
+            return pos.getSideToMove() == Position.RED ? RESULT_BLUE : RESULT_RED;
+        }
+        reason[0] = "max_plies";
+        return RESULT_DRAW;
+    }
+
+    public synchronized String summary() {
+        int n = winsA + draws + lossesA;
+        if (n == 0) return "no games";
+        double score = (winsA + draws / 2.0) / n;
+        return String.format("A: +%d =%d -%d  score %.1f%%  Elo %+.1f +/- %.1f (95%%)", winsA, draws, lossesA,
+                score * 100, elo(score), eloError(winsA, draws, lossesA));
+    }
+
+    // Elo difference for an expected score in (0, 1)
+    static double elo(double score) {
+        score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    // Half width of the 95% confidence interval of the Elo difference, from the per-game score variance
+    static double eloError(int wins, int draws, int losses) {
+        int n = wins + draws + losses;
+        if (n == 0) return Double.POSITIVE_INFINITY;
+        double score = (wins + draws / 2.0) / n;
+        double variance = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2) + losses * Math.pow(score, 2)) / n;
+        double margin = 1.96 * Math.sqrt(variance / n);
+        return (elo(score + margin) - elo(score - margin)) / 2;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int games = 1000, threads = Runtime.getRuntime().availableProcessors();
+        List<int[]> openings = new ArrayList<>();
+        List<String[]> options = new ArrayList<>();
+        for (int i = 0; i < args.length; ) {
+            int arity = args[i].equals("-adjudicate") ? 2 : 1;
+            if (!args[i].startsWith("-") || i + arity >= args.length) {
+                System.out.println("Usage: java Tournament [-games N] [-threads N] [-depth D] [-time ms] [-hash MB] [-openings file]"
+                        + " [-evalA file] [-evalB file] [-out file] [-records dir] [-maxPlies N] [-adjudicate score plies]");
+                return;
+            }
+            options.add(Arrays.copyOfRange(args, i, i + arity + 1));
+            i += arity + 1;
+        }
+        for (String[] option : options) {
+            if (option[0].equals("-games")) games = Integer.parseInt(option[1]);
+            else if (option[0].equals("-threads")) threads = Integer.parseInt(option[1]);
+            else if (option[0].equals("-openings")) openings = loadOpenings(Paths.get(option[1]));
+        }
+        Tournament settings = new Tournament(games, threads, openings);
+        settings.setOutput(Paths.get("tournament.txt"));
+        Evaluation a = Evaluation.DEFAULT, b = Evaluation.DEFAULT;
+        for (String[] option : options) {
+            switch (option[0]) {
+                case "-games": case "-threads": case "-openings":
+                    break;
+                case "-depth":
+                    settings.setDepth(Integer.parseInt(option[1]));
+                    break;
+                case "-time":
+                    settings.setTimeMillis(Long.parseLong(option[1]));
+                    break;
+                case "-hash":
+                    settings.setHashMegabytes(Long.parseLong(option[1]));
+                    break;
+                case "-evalA":
+                    a = Evaluation.load(Paths.get(option[1]));
+                    break;
+                case "-evalB":
+                    b = Evaluation.load(Paths.get(option[1]));
+                    break;
+                case "-out":
+                    settings.setOutput(Paths.get(option[1]));
+                    break;
+                case "-records":
+                    settings.setRecordDir(Paths.get(option[1]));
+                    break;
+                case "-maxPlies":
+                    settings.setMaxPlies(Integer.parseInt(option[1]));
+                    break;
+                case "-adjudicate":
+                    settings.setAdjudication(Integer.parseInt(option[1]), Integer.parseInt(option[2]));
+                    break;
+                default:
+                    System.out.println("Unknown option: " + option[0]);
+                    return;
+            }
+        }
+        settings.setEvaluations(a, b);
+        settings.run();
+    }
+}
@@ -0,0 +1,132 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Fixed-size transposition table kept off-heap in direct ByteBuffers, so a table of many
+// gigabytes is invisible to the garbage collector. Keyed by the Zobrist hash of a Position
+// (Chess.getPositionHash()).
+//
+// Each bucket holds two 16-byte entries: slot 0 is depth-preferred, slot 1 is always replaced.
+// An entry is stored as (key ^ data, data). Threads read and write without locks; a torn
+// entry fails the key check on probe and reads as a miss.
+//
+// data layout: bits 0-13 best move, 14-15 bound, 16-23 depth, 24-39 score, 40-45 generation.
+// Large tables need -XX:MaxDirectMemorySize set at least as large as the table.
+public class TranspositionTable {
+    public static final int EXACT = 1;
+    public static final int LOWER = 2; // score is a lower bound (fail high)
+    public static final int UPPER = 3; // score is an upper bound (fail low)
+    // Returned by probe() when the key is not stored; real entries never encode to 0 (bound != 0)
+    public static final long MISS = 0L;
+
+    static final int ENTRY_BYTES = 16;
+    static final int BUCKET_BYTES = 2 * ENTRY_BYTES;
+    // A ByteBuffer is indexed by int, so the table is split into chunks of 1 GB
+    private static final int CHUNK_SHIFT = 30;
+
+    private final ByteBuffer[] chunks;
+    private final long bucketMask;
+    private final int bucketsPerChunkShift;
+    private volatile int generation;
+
+    // Size is rounded down to a power of two buckets, at least one bucket
+    public TranspositionTable(long megabytes) {
+        long bytes = Math.max(BUCKET_BYTES, megabytes << 20);
+        long buckets = Long.highestOneBit(bytes / BUCKET_BYTES);
+        bucketMask = buckets - 1;
+        long chunkBytes = Math.min(buckets * BUCKET_BYTES, 1L << CHUNK_SHIFT);
+        bucketsPerChunkShift = Long.numberOfTrailingZeros(chunkBytes / BUCKET_BYTES);
+        chunks = new ByteBuffer[(int) (buckets * BUCKET_BYTES / chunkBytes)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect((int) chunkBytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    public long sizeBytes() {
+        return (bucketMask + 1) * BUCKET_BYTES;
+    }
+
+    // Called once per search so entries from older searches are replaced first
+    public void newSearch() {
+        generation = (generation + 1) & 0x3F;
+    }
+
+    public void clear() {
+        for (ByteBuffer chunk : chunks) {
+            for (int i = 0; i < chunk.capacity(); i += 8) chunk.putLong(i, 0L);
+        }
+        generation = 0;
+    }
+
+    // Entry data for key, or MISS
+    public long probe(long key) {
+        long bucket = key & bucketMask;
+        ByteBuffer chunk = chunks[(int) (bucket >>> bucketsPerChunkShift)];
+        int offset = (int) ((bucket & ((1L << bucketsPerChunkShift) - 1)) * BUCKET_BYTES);
+        for (int slot = 0; slot < 2; slot++, offset += ENTRY_BYTES) {
+            long check = chunk.getLong(offset);
+            long data = chunk.getLong(offset + 8);
+            if ((check ^ data) == key && data != MISS) return data;
+        }
+        return MISS;
+    }
+
+    public void store(long key, int depth, int bound, int score, int move) {
+        long bucket = key & bucketMask;
+        ByteBuffer chunk = chunks[(int) (bucket >>> bucketsPerChunkShift)];
+        int offset = (int) ((bucket & ((1L << bucketsPerChunkShift) - 1)) * BUCKET_BYTES);
+        int gen = generation;
+        long oldData = chunk.getLong(offset + 8);
+        boolean sameKey = (chunk.getLong(offset) ^ oldData) == key;
+        // Keep the known best move when re-storing a position without one
+        if (move == 0 && sameKey) move = moveOf(oldData);
+        long data = pack(depth, bound, score, move, gen);
+        // Depth-preferred slot: same position, deeper or equal search, or stale entry
+        if (sameKey || oldData == MISS || depth >= depthOf(oldData) || generationOf(oldData) != gen) {
+            chunk.putLong(offset, key ^ data);
+            chunk.putLong(offset + 8, data);
+        } else {
+            chunk.putLong(offset + ENTRY_BYTES, key ^ data);
+            chunk.putLong(offset + ENTRY_BYTES + 8, data);
+        }
+    }
+
+    // Approximate fill of the table in permille, sampled over the first buckets
+    public int hashfull() {
+        int sample = (int) Math.min(500, bucketMask + 1);
+        int used = 0;
+        ByteBuffer chunk = chunks[0];
+        for (int i = 0; i < sample * 2; i++) {
+            long data = chunk.getLong(i * ENTRY_BYTES + 8);
+            if (data != MISS && generationOf(data) == generation) used++;
+        }
+        return used * 1000 / (sample * 2);
+    }
+
+    static long pack(int depth, int bound, int score, int move, int gen) {
+        return (move & 0x3FFFL)
+                | (long) bound << 14
+                | (long) (depth & 0xFF) << 16
+                | (long) (score & 0xFFFF) << 24
+                | (long) gen << 40;
+    }
+
+    public static int moveOf(long data) {
+        return (int) (data & 0x3FFF);
+    }
+
+    public static int boundOf(long data) {
+        return (int) (data >>> 14 & 3);
+    }
+
+    public static int depthOf(long data) {
+        return (int) (data >>> 16 & 0xFF);
+    }
+
+    public static int scoreOf(long data) {
+        return (short) (data >>> 24);
+    }
+
+    static int generationOf(long data) {
+        return (int) (data >>> 40 & 0x3F);
+    }
+}